@@ -0,0 +1,143 @@
+package lambda;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Random access to an input file, so it can be read in independent chunks.
+ */
+public interface ByteRangeSource {
+
+    /**
+     * @return The size of the file in bytes.
+     */
+    long length() throws IOException;
+
+    /**
+     * Open a stream that starts at the given offset and runs to the end of
+     * the file. Closing it early must not read the remaining bytes.
+     */
+    InputStream open(long offset) throws IOException;
+
+    /**
+     * Open a stream over the bytes from start up to, not including, end.
+     */
+    InputStream open(long start, long end) throws IOException;
+
+    /**
+     * An S3 object read with ranged GET requests.
+     */
+    static ByteRangeSource s3(AmazonS3 s3Client, String bucketname, String key) {
+        return new ByteRangeSource() {
+            private long length = -1;
+
+            @Override
+            public long length() {
+                if (length < 0) {
+                    length = s3Client.getObjectMetadata(bucketname, key).getContentLength();
+                }
+                return length;
+            }
+
+            @Override
+            public InputStream open(long offset) {
+                return abortOnEarlyClose(s3Client.getObject(
+                        new GetObjectRequest(bucketname, key).withRange(offset)).getObjectContent());
+            }
+
+            @Override
+            public InputStream open(long start, long end) {
+                return abortOnEarlyClose(s3Client.getObject(
+                        new GetObjectRequest(bucketname, key).withRange(start, end - 1)).getObjectContent());
+            }
+
+            private InputStream abortOnEarlyClose(S3ObjectInputStream content) {
+                return new FilterInputStream(content) {
+                    private boolean eof = false;
+
+                    @Override
+                    public int read() throws IOException {
+                        int b = super.read();
+                        eof |= b < 0;
+                        return b;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        int n = super.read(b, off, len);
+                        eof |= n < 0;
+                        return n;
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        // Drop the connection instead of draining the rest of
+                        // the range, but keep it for reuse once fully read.
+                        if (!eof) {
+                            content.abort();
+                        }
+                        super.close();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * A local file mapped into memory, useful for running chunked transforms
+     * outside of Lambda.
+     */
+    static ByteRangeSource mapped(Path path) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("File too large to map: " + path);
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return new ByteRangeSource() {
+            @Override
+            public long length() {
+                return mapped.capacity();
+            }
+
+            @Override
+            public InputStream open(long offset) {
+                return open(offset, mapped.capacity());
+            }
+
+            @Override
+            public InputStream open(long start, long end) {
+                ByteBuffer slice = mapped.duplicate();
+                slice.limit((int) end);
+                slice.position((int) start);
+                return new InputStream() {
+                    @Override
+                    public int read() {
+                        return slice.hasRemaining() ? slice.get() & 0xff : -1;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) {
+                        if (!slice.hasRemaining()) {
+                            return -1;
+                        }
+                        int n = Math.min(len, slice.remaining());
+                        slice.get(b, off, n);
+                        return n;
+                    }
+                };
+            }
+        };
+    }
+}
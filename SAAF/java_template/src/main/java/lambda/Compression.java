@@ -0,0 +1,73 @@
+package lambda;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Detection of gzip compressed input, by the .gz extension of the key or by
+ * the gzip magic bytes at the start of the data.
+ */
+public final class Compression {
+
+    public static final String GZIP_EXTENSION = ".gz";
+    public static final String GZIP_CONTENT_TYPE = "application/gzip";
+
+    private static final int MAGIC_0 = 0x1f;
+    private static final int MAGIC_1 = 0x8b;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private Compression() {}
+
+    public static boolean hasGzipExtension(String key) {
+        return key.endsWith(GZIP_EXTENSION);
+    }
+
+    /**
+     * @return The key without a trailing .gz extension.
+     */
+    public static String stripGzipExtension(String key) {
+        return hasGzipExtension(key) ? key.substring(0, key.length() - GZIP_EXTENSION.length()) : key;
+    }
+
+    /**
+     * Wrap the stream in a GZIPInputStream if the key or the first bytes say
+     * it is compressed, otherwise return it unchanged apart from buffering.
+     * Concatenated gzip members are read as one stream.
+     */
+    public static InputStream decompress(InputStream in, String key) throws IOException {
+        if (hasGzipExtension(key)) {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+        buffered.mark(2);
+        int b0 = buffered.read();
+        int b1 = buffered.read();
+        buffered.reset();
+        if (b0 == MAGIC_0 && b1 == MAGIC_1) {
+            return new GZIPInputStream(buffered, BUFFER_SIZE);
+        }
+        return buffered;
+    }
+
+    /**
+     * @return True if the key or the first bytes of the source say it is
+     * compressed. Compressed sources cannot be read in independent ranges.
+     */
+    public static boolean isGzip(String key, ByteRangeSource source) throws IOException {
+        if (hasGzipExtension(key)) {
+            return true;
+        }
+        if (source.length() < 2) {
+            return false;
+        }
+        try (InputStream in = source.open(0, 2)) {
+            int b0 = in.read();
+            int b1 = in.read();
+            // Read to the end so the connection can be reused.
+            in.read();
+            return b0 == MAGIC_0 && b1 == MAGIC_1;
+        }
+    }
+}
@@ -4,7 +4,6 @@ import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.LambdaLogger;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3Object;
@@ -12,20 +11,30 @@ import saaf.Inspector;
 import saaf.Response;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringWriter;
-import java.math.BigDecimal;
-import java.nio.charset.StandardCharsets;
-import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class ExtractTransform implements RequestHandler<Request, HashMap<String, Object>> {
     @Override
     public HashMap<String, Object> handleRequest(Request request, Context context) {
-        //Collect initial data.
+        //Collect initial data. Container attributes are collected while the
+        //transform waits on S3.
         Inspector inspector = new Inspector();
-        inspector.inspectAll();
+        if (request.isInspectJvm()) {
+            inspector.inspectJVM();
+        }
+        if (request.isInspectThread()) {
+            inspector.inspectThread();
+        }
+        inspector.inspectAllAsync();
 
 //        LambdaLogger logger = context.getLogger();
 
@@ -33,77 +42,394 @@ public class ExtractTransform implements RequestHandler<Request, HashMap<String,
         String filename = request.getFilename();
 //        logger.log("Received bucketname:" + bucketname + " Received filename:" + filename);
 
-        AmazonS3 s3Client = AmazonS3ClientBuilder.standard().build();
+        // Reads and writes share one client that lives as long as the container.
+        boolean clientReused = S3Clients.isCached();
+        AmazonS3 s3Client = S3Clients.get();
+        inspector.addAttribute("s3ClientReused", clientReused ? 1 : 0);
+        inspector.addAttribute("s3ClientSetupTime", clientReused ? 0 : S3Clients.getSetupTime());
 
-        S3Object s3Object = s3Client.getObject(new GetObjectRequest(bucketname, filename));
+        // Creates a new file Name;
+        String baseName = Compression.stripGzipExtension(filename);
+        int dotIndex = baseName.lastIndexOf(".");
+        String extension = request.isColumnar() ? SalesColumnarWriter.EXTENSION : baseName.substring(dotIndex);
+        String newFileName = baseName.substring(0, dotIndex) + "-et" + extension;
+        String rollupFileName = baseName.substring(0, dotIndex) + "-rollup.csv";
+        if (request.isCompress()) {
+            newFileName += Compression.GZIP_EXTENSION;
+        }
+        String contentType = request.isCompress() ? Compression.GZIP_CONTENT_TYPE
+                : request.isColumnar() ? SalesColumnarWriter.CONTENT_TYPE : "text/plain";
+        if (request.getCompressionLevel() < 0 || request.getCompressionLevel() > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level must be 1 to 9, or 0 for the default: " + request.getCompressionLevel());
+        }
+        int compressionLevel = request.getCompressionLevel() > 0 ? request.getCompressionLevel() : Deflater.DEFAULT_COMPRESSION;
 
-        InputStream objectData = s3Object.getObjectContent();
+        long size;
+        try {
+            if (request.isBuffered() && !request.isColumnar() && !request.isRollup() && request.getIndexKey() == null) {
+                S3Object s3Object = s3Client.getObject(new GetObjectRequest(bucketname, filename));
+                InputStream input = s3Object.getObjectContent();
+                // The parser closes the input once it has it, this also
+                // covers failures before that, such as a bad gzip header.
+                try {
+                    input = Compression.decompress(input, filename);
+                    inspector.addAttribute("compressedInput", input instanceof GZIPInputStream ? 1 : 0);
+                    size = transformBuffered(input, s3Client, bucketname, newFileName, request.isCompress(), contentType, inspector);
+                } finally {
+                    input.close();
+                }
+            } else {
+                // Orders in the index of earlier invocations count as seen.
+                OrderIdIndex index = null;
+                if (request.getIndexKey() != null) {
+                    long start = System.currentTimeMillis();
+                    OrderIdIndexStore.Loaded loaded = OrderIdIndexStore.load(s3Client, bucketname, request.getIndexKey());
+                    index = loaded.getIndex();
+                    inspector.addAttribute("indexSource", loaded.getSource().name().toLowerCase());
+                    inspector.addAttribute("indexLoadTime", System.currentTimeMillis() - start);
+                }
+                OrderIdSet orderIds = new OrderIdSet(index, request.isOffHeap());
+                SalesDictionary dictionary = request.isCacheDictionary() ? SalesDictionary.shared() : new SalesDictionary();
+                inspector.addAttribute("dictionaryReused", dictionary.size() > 0 ? 1 : 0);
 
-        HashSet<Sale> sales = new HashSet<>();
+                ByteRangeSource source = ByteRangeSource.s3(s3Client, bucketname, filename);
+                // Compressed input cannot be split into ranges, it is streamed instead.
+                SalesRollup rollup = request.isRollup() ? new SalesRollup(dictionary) : null;
+                boolean parallel = request.isParallel() && !request.isColumnar()
+                        && !(rollup != null && request.isOrdered())
+                        && !Compression.isGzip(filename, source);
 
-        // Read sales data from CSV
-        Scanner scanner = new Scanner(objectData);
-        while (scanner.hasNext()) {
-            String line = scanner.nextLine();
-            // Skips column names
-            if (line.startsWith("Region,Country,")) {
-                continue;
-            }
-            Sale newSale = getSale(line);
+                S3MultipartOutputStream upload = new S3MultipartOutputStream(s3Client, bucketname, newFileName, contentType);
+                PipelinedGzipOutputStream gzip = request.isCompress() ? new PipelinedGzipOutputStream(upload, compressionLevel) : null;
+                OutputStream output = gzip != null ? gzip : upload;
+                // Closing the upload completes it, so it is only closed on success.
+                try {
+                    if (parallel) {
+                        ParallelTransform transform = new ParallelTransform(request.getParallelism(), request.isOrdered());
+                        if (rollup != null) {
+                            transform.setRollup(rollup);
+                        }
+                        Inspector.Span process = inspector.startSpan("process");
+                        try {
+                            transformParallel(source, output, orderIds, dictionary, transform);
+                        } finally {
+                            process.end();
+                        }
+                        addParallelAttributes(inspector, transform);
+                        inspector.addAttribute("compressedInput", 0);
+                    } else {
+                        InputStream input;
+                        PrefetchingInputStream prefetch = null;
+                        if (request.getPrefetch() > 0) {
+                            input = prefetch = new PrefetchingInputStream(source, request.getPrefetch());
+                        } else {
+                            input = s3Client.getObject(new GetObjectRequest(bucketname, filename)).getObjectContent();
+                        }
+                        // Stops the prefetch threads and requests in flight
+                        // if the transform fails before the parser closes it.
+                        try {
+                            input = Compression.decompress(input, filename);
+                            inspector.addAttribute("compressedInput", input instanceof GZIPInputStream ? 1 : 0);
+                            Inspector.Span process = inspector.startSpan("process");
+                            try {
+                                if (request.isColumnar()) {
+                                    transformColumnar(input, output, orderIds, dictionary, rollup, inspector);
+                                } else {
+                                    transformStreaming(input, output, orderIds, dictionary, rollup, inspector);
+                                }
+                            } finally {
+                                process.end();
+                            }
+                        } finally {
+                            input.close();
+                        }
+                        if (prefetch != null) {
+                            inspector.addAttribute("prefetchParts", prefetch.getParts());
+                            inspector.addAttribute("prefetchWaitTime", prefetch.getWaitTime());
+                        }
+                    }
+                    Inspector.Span uploadSpan = inspector.startSpan("upload");
+                    try {
+                        if (gzip != null) {
+                            gzip.finish();
+                            inspector.addAttribute("uncompressedSize", gzip.getBytesWritten());
+                            inspector.addAttribute("compressWaitTime", gzip.getWaitTime());
+                        }
+                        upload.close();
+                    } finally {
+                        uploadSpan.end();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    if (gzip != null) {
+                        gzip.abort();
+                    }
+                    upload.abort();
+                    throw e;
+                }
+                size = upload.getBytesWritten();
+                // Only recorded once the output is complete, so a failed
+                // invocation processes the same orders again on retry.
+                if (index != null) {
+                    long start = System.currentTimeMillis();
+                    index = OrderIdIndexStore.save(s3Client, bucketname, request.getIndexKey(), index, orderIds);
+                    inspector.addAttribute("indexSaveTime", System.currentTimeMillis() - start);
+                    inspector.addAttribute("indexOrders", index.size());
+                    inspector.addAttribute("knownOrders", orderIds.getKnownAdds());
+                }
+                if (rollup != null) {
+                    Inspector.Span rollupSpan = inspector.startSpan("rollup");
+                    try {
+                        writeRollup(rollup, s3Client, bucketname, rollupFileName);
+                    } finally {
+                        rollupSpan.end();
+                    }
+                    inspector.addAttribute("rollupGroups", rollup.size());
+                }
+                inspector.addAttribute("uploadParts", upload.getParts());
+                inspector.addAttribute("uploadWaitTime", upload.getWaitTime());
 
-            sales.add(newSale);
+                inspector.addAttribute("dictionarySize", dictionary.size());
+                inspector.addAttribute("uniqueOrders", orderIds.size());
+                inspector.addAttribute("dedupTableBytes", orderIds.getTableBytes());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        scanner.close();
+        inspector.addAttribute("streaming", request.isBuffered() && !request.isColumnar() && !request.isRollup() && request.getIndexKey() == null ? 0 : 1);
+        inspector.addAttribute("columnar", request.isColumnar() ? 1 : 0);
+
+        Response response = new Response();
+        response.setValue("Bucket:" + bucketname + " filename:" + newFileName + " size:" + size);
 
-        StringWriter sw = new StringWriter();
+        inspector.consumeResponse(response);
+
+        //Collect final information such as total runtime and cpu deltas.
+        inspector.inspectAllDeltas();
+        return inspector.finish();
+    }
+
+    /**
+     * Parse, transform and serialize rows in columnar batches straight into
+     * the output, so memory use is bounded by the upload part size and the
+     * set of order IDs seen so far rather than by the file size.
+     * The first occurrence of each order ID is kept, in input order.
+     *
+     * @param orderIds Order IDs already written, new IDs are added to it.
+     * @param dictionary Dictionary for the text columns.
+     * @param rollup Rollup to add the written rows to, or null.
+     * @param inspector Inspector to time the parse, read, transform and
+     * write phases with spans.
+     */
+    private static void transformStreaming(InputStream objectData, OutputStream output, OrderIdSet orderIds, SalesDictionary dictionary,
+                                           SalesRollup rollup, Inspector inspector) throws IOException {
+        SaleCsvWriter out = new SaleCsvWriter(output);
+        SalesBatch batch = new SalesBatch(dictionary);
+        Inspector.Span parse = null;
+        Inspector.Span transform = null;
+        Inspector.Span write = inspector.startSpan("write");
         // Add column names
-        sw.append("Region,Country,Item Type,Sales Channel,Order Priority,Order Date,Order ID,Ship Date,Units Sold,Unit Price,Unit Cost,Total Revenue,Total Cost,Total Profit,Order Processing Time,Gross Margin\n");
-        // Write sales data to new CSV
-        for (Sale s : sales) {
-            sw.append(s.toString()).append("\n");
+        out.writeHeader();
+        write.end();
+        try (SalesCsvParser parser = new SalesCsvParser(new TimedInputStream(objectData, inspector, "read"), dictionary)) {
+            while (true) {
+                parse = startSpan(inspector, parse, "parse");
+                int rows = parser.fill(batch);
+                parse.end();
+                if (rows == 0) {
+                    break;
+                }
+                transform = startSpan(inspector, transform, "transform");
+                batch.retainNew(orderIds);
+                batch.transform();
+                if (rollup != null) {
+                    rollup.add(batch);
+                }
+                transform.end();
+                write.start();
+                out.write(batch);
+                write.end();
+            }
+            write.start();
+            out.flush();
+            write.end();
+        }
+    }
+
+    /**
+     * Streaming transform that writes the columnar format of
+     * SalesColumnarWriter instead of CSV.
+     */
+    private static void transformColumnar(InputStream objectData, OutputStream output, OrderIdSet orderIds, SalesDictionary dictionary,
+                                          SalesRollup rollup, Inspector inspector) throws IOException {
+        SalesColumnarWriter out = new SalesColumnarWriter(output);
+        SalesBatch batch = new SalesBatch(dictionary);
+        Inspector.Span parse = null;
+        Inspector.Span transform = null;
+        Inspector.Span write = null;
+        try (SalesCsvParser parser = new SalesCsvParser(new TimedInputStream(objectData, inspector, "read"), dictionary)) {
+            while (true) {
+                parse = startSpan(inspector, parse, "parse");
+                int rows = parser.fill(batch);
+                parse.end();
+                if (rows == 0) {
+                    break;
+                }
+                transform = startSpan(inspector, transform, "transform");
+                batch.retainNew(orderIds);
+                batch.transform();
+                if (rollup != null) {
+                    rollup.add(batch);
+                }
+                transform.end();
+                write = startSpan(inspector, write, "write");
+                out.write(batch);
+                write.end();
+            }
+            write = startSpan(inspector, write, "write");
+            out.finish();
+            write.end();
         }
+    }
+
+    /**
+     * Start a span on its first use and again on every later one, for the
+     * phases of a loop.
+     */
+    private static Inspector.Span startSpan(Inspector inspector, Inspector.Span span, String name) {
+        return span == null ? inspector.startSpan(name) : span.start();
+    }
 
-        byte[] bytes = sw.toString().getBytes(StandardCharsets.UTF_8);
-        InputStream is = new ByteArrayInputStream(bytes);
+    /**
+     * Upload the rollup as a side output next to the transformed file.
+     */
+    private static void writeRollup(SalesRollup rollup, AmazonS3 s3Client, String bucketname, String key) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        rollup.writeCsv(bytes);
         ObjectMetadata meta = new ObjectMetadata();
-        meta.setContentLength(bytes.length);
+        meta.setContentLength(bytes.size());
         meta.setContentType("text/plain");
+        s3Client.putObject(bucketname, key, new ByteArrayInputStream(bytes.toByteArray()), meta);
+    }
 
-        AmazonS3 s3ClientOutput = AmazonS3ClientBuilder.standard().build();
-        // Creates a new file Name;
-        int dotIndex = filename.lastIndexOf(".");
-        String newFileName = filename.substring(0, dotIndex) + "-et" + filename.substring(dotIndex);
+    /**
+     * Transform line-aligned chunks of the input concurrently, see
+     * ParallelTransform.
+     */
+    private static void transformParallel(ByteRangeSource source, OutputStream output, OrderIdSet orderIds, SalesDictionary dictionary, ParallelTransform parallel) throws IOException {
+        SaleCsvWriter header = new SaleCsvWriter(output, SaleCsvWriter.HEADER.length());
+        header.writeHeader();
+        header.flush();
+        parallel.run(source, dictionary, orderIds, output);
+    }
 
-        s3ClientOutput.putObject(bucketname, newFileName, is, meta);
+    /**
+     * Report how well the parallel transform used the available cores.
+     *
+     * parallelTaskTime: CPU time of the chunk tasks summed over threads in ms.
+     * parallelWallTime: Elapsed time of the parallel transform in ms.
+     * parallelSpeedup: Task time divided by elapsed time.
+     * parallelEfficiency: Speedup divided by the number of threads.
+     */
+    private static void addParallelAttributes(Inspector inspector, ParallelTransform parallel) {
+        inspector.addAttribute("availableProcessors", Runtime.getRuntime().availableProcessors());
+        inspector.addAttribute("parallelism", parallel.getParallelism());
+        inspector.addAttribute("parallelChunks", parallel.getChunks());
+        inspector.addAttribute("parallelTaskTime", parallel.getTaskTime());
+        inspector.addAttribute("parallelWallTime", parallel.getWallTime());
+        inspector.addAttribute("parallelSpeedup", Math.round(parallel.getSpeedup() * 100) / 100.0);
+        inspector.addAttribute("parallelEfficiency", Math.round(parallel.getSpeedup() / parallel.getParallelism() * 100) / 100.0);
+    }
 
-        Response response = new Response();
-        response.setValue("Bucket:" + bucketname + " filename:" + newFileName + " size:" + bytes.length);
+    /**
+     * Original implementation: collect every sale in memory, then upload the
+     * whole output with a single putObject.
+     *
+     * @param compress Gzip the output.
+     * @param inspector Inspector to time the parse, read, write and upload
+     * phases with spans.
+     * @return The number of bytes uploaded.
+     */
+    private static long transformBuffered(InputStream objectData, AmazonS3 s3Client, String bucketname, String newFileName,
+                                          boolean compress, String contentType, Inspector inspector) throws IOException {
+        HashSet<Sale> sales = new HashSet<>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
 
-        inspector.consumeResponse(response);
+        Inspector.Span process = inspector.startSpan("process");
+        try {
+            // Read sales data from CSV
+            Inspector.Span parse = inspector.startSpan("parse");
+            try (SalesCsvParser parser = new SalesCsvParser(new TimedInputStream(objectData, inspector, "read"), new SalesDictionary())) {
+                while (parser.next()) {
+                    sales.add(parser.getSale());
+                }
+            } finally {
+                parse.end();
+            }
 
-        //Collect final information such as total runtime and cpu deltas.
-        inspector.inspectAllDeltas();
-        return inspector.finish();
+            Inspector.Span write = inspector.startSpan("write");
+            try {
+                SaleCsvWriter out = new SaleCsvWriter(compress ? new GZIPOutputStream(bytes) : bytes);
+                // Add column names
+                out.writeHeader();
+                // Write sales data to new CSV
+                for (Sale s : sales) {
+                    out.write(s);
+                }
+                out.close();
+            } finally {
+                write.end();
+            }
+        } finally {
+            process.end();
+        }
+
+        InputStream is = new ByteArrayInputStream(bytes.toByteArray());
+        ObjectMetadata meta = new ObjectMetadata();
+        meta.setContentLength(bytes.size());
+        meta.setContentType(contentType);
+
+        Inspector.Span upload = inspector.startSpan("upload");
+        try {
+            s3Client.putObject(bucketname, newFileName, is, meta);
+        } finally {
+            upload.end();
+        }
+        return bytes.size();
     }
 
-    private static Sale getSale(String line) {
-        String[] data = line.split(",");
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("M/d/yyyy");
-
-        return new Sale(
-                data[0],
-                data[1],
-                data[2],
-                data[3],
-                data[4],
-                LocalDate.parse(data[5], formatter),
-                Integer.parseInt(data[6]),
-                LocalDate.parse(data[7], formatter),
-                Integer.parseInt(data[8]),
-                new BigDecimal(data[9]),
-                new BigDecimal(data[10]),
-                new BigDecimal(data[11]),
-                new BigDecimal(data[12]),
-                new BigDecimal(data[13]));
+    /**
+     * Input that times its reads with a span, started on the first read so it
+     * is nested in the span open at that time.
+     */
+    private static final class TimedInputStream extends FilterInputStream {
+        private final Inspector inspector;
+        private final String name;
+        private Inspector.Span span;
+
+        TimedInputStream(InputStream in, Inspector inspector, String name) {
+            super(in);
+            this.inspector = inspector;
+            this.name = name;
+        }
+
+        @Override
+        public int read() throws IOException {
+            span = startSpan(inspector, span, name);
+            try {
+                return super.read();
+            } finally {
+                span.end();
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            span = startSpan(inspector, span, name);
+            try {
+                return super.read(b, off, len);
+            } finally {
+                span.end();
+            }
+        }
     }
 }
@@ -0,0 +1,147 @@
+package lambda;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Fixed-point monetary amounts held in a single long.
+ *
+ * The value is kept in ten-thousandths (MAX_SCALE decimals) and the number
+ * of decimals it was written with in the low SCALE_BITS bits, so an amount
+ * prints exactly like BigDecimal.toString of the text it was parsed from:
+ * 1.5 stays 1.5 and 255.28 stays 255.28. Amounts with longer fractions are
+ * rounded HALF_UP to MAX_SCALE decimals. Packed amounts order like their
+ * values, so they can be compared directly.
+ */
+public final class Money {
+
+    public static final int MAX_SCALE = 4;
+    // Decimals of the gross margin, as in BigDecimal.divide(x, 2, HALF_UP).
+    public static final int RATIO_SCALE = 2;
+    // Largest value in ten-thousandths that fits next to the scale bits.
+    public static final long MAX_VALUE = Long.MAX_VALUE >> 3;
+
+    private static final int SCALE_BITS = 3;
+    private static final long SCALE_MASK = (1 << SCALE_BITS) - 1;
+    // One whole unit in ten-thousandths.
+    static final long UNIT = 10_000;
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1_000, 10_000};
+
+    private Money() {}
+
+    /**
+     * @param value The amount in ten-thousandths.
+     * @param scale The number of decimals to print, 0 to MAX_SCALE.
+     * @throws ArithmeticException if the value does not fit.
+     */
+    public static long of(long value, int scale) {
+        if (value > MAX_VALUE || value < -MAX_VALUE) {
+            throw new ArithmeticException("Amount out of range: " + value);
+        }
+        if (scale < 0 || scale > MAX_SCALE) {
+            throw new IllegalArgumentException("Scale out of range: " + scale);
+        }
+        return value << SCALE_BITS | scale;
+    }
+
+    /**
+     * @return The amount unscaled * 10^-scale, e.g. valueOf(150, 2) for 1.50.
+     */
+    public static long valueOf(long unscaled, int scale) {
+        return of(Math.multiplyExact(unscaled, POWERS_OF_TEN[MAX_SCALE - scale]), scale);
+    }
+
+    /**
+     * @return The value of an amount in ten-thousandths.
+     */
+    public static long value(long amount) {
+        return amount >> SCALE_BITS;
+    }
+
+    /**
+     * @return The number of decimals an amount is printed with.
+     */
+    public static int scale(long amount) {
+        return (int) (amount & SCALE_MASK);
+    }
+
+    /**
+     * Fractions longer than MAX_SCALE are rounded HALF_UP.
+     *
+     * @throws ArithmeticException if the value does not fit.
+     */
+    public static long fromBigDecimal(BigDecimal value) {
+        int scale = Math.max(0, Math.min(value.scale(), MAX_SCALE));
+        BigDecimal scaled = value.setScale(MAX_SCALE, RoundingMode.HALF_UP);
+        return of(scaled.unscaledValue().longValueExact(), scale);
+    }
+
+    public static BigDecimal toBigDecimal(long amount) {
+        return BigDecimal.valueOf(value(amount), MAX_SCALE).setScale(scale(amount), RoundingMode.UNNECESSARY);
+    }
+
+    /**
+     * Divide two amounts and round the quotient to two decimals, HALF_UP.
+     * Same result as BigDecimal.divide(divisor, 2, RoundingMode.HALF_UP).
+     *
+     * @return The quotient as an amount with two decimals.
+     * @throws ArithmeticException if the divisor is zero.
+     */
+    public static long ratio(long dividend, long divisor) {
+        long a = value(dividend);
+        long b = value(divisor);
+        long scaled;
+        try {
+            scaled = Math.multiplyExact(a, POWERS_OF_TEN[RATIO_SCALE]);
+        } catch (ArithmeticException e) {
+            return fromBigDecimal(BigDecimal.valueOf(a).divide(BigDecimal.valueOf(b), RATIO_SCALE, RoundingMode.HALF_UP));
+        }
+        long quotient = scaled / b;
+        long remainder = Math.abs(scaled % b);
+        // Round away from zero when the remainder is at least half the divisor.
+        if (remainder >= Math.abs(b) - remainder) {
+            quotient += (scaled < 0) == (b < 0) ? 1 : -1;
+        }
+        return valueOf(quotient, RATIO_SCALE);
+    }
+
+    /**
+     * @return The same text as toBigDecimal(amount).toString(), e.g. 1582243.50, 1.5 or -0.05.
+     */
+    public static String toString(long amount) {
+        return append(new StringBuilder(24), amount).toString();
+    }
+
+    public static StringBuilder append(StringBuilder sb, long amount) {
+        return appendValue(sb, value(amount), scale(amount));
+    }
+
+    /**
+     * Append a sum of amounts, given in ten-thousandths, with two decimals or
+     * as many more as it needs.
+     */
+    public static StringBuilder appendTotal(StringBuilder sb, long value) {
+        int scale = MAX_SCALE;
+        while (scale > RATIO_SCALE && value % POWERS_OF_TEN[MAX_SCALE - scale + 1] == 0) {
+            scale--;
+        }
+        return appendValue(sb, value, scale);
+    }
+
+    private static StringBuilder appendValue(StringBuilder sb, long value, int scale) {
+        if (value < 0) {
+            sb.append('-');
+            value = -value;
+        }
+        sb.append(value / UNIT);
+        if (scale > 0) {
+            long fraction = value % UNIT / POWERS_OF_TEN[MAX_SCALE - scale];
+            sb.append('.');
+            for (int digits = scale - 1; digits > 0 && fraction < POWERS_OF_TEN[digits]; digits--) {
+                sb.append('0');
+            }
+            sb.append(fraction);
+        }
+        return sb;
+    }
+}
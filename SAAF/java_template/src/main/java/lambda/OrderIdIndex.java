@@ -0,0 +1,283 @@
+package lambda;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Read-only set of the order IDs processed by earlier invocations, in a
+ * compact roaring-style bitmap that is used straight from a memory-mapped
+ * file.
+ *
+ * IDs are split into containers by their high 16 bits. A container holds
+ * the low 16 bits of its IDs either as a sorted array of chars, while it has
+ * at most ARRAY_LIMIT of them, or as a bitmap of 65536 bits. Only the
+ * directory of containers is read when the index is opened, the containers
+ * themselves are read from the mapped file on lookup.
+ *
+ * <pre>
+ * file      = MAGIC version:int container* footer footerLength:int MAGIC
+ * container = low:char*                    at most ARRAY_LIMIT IDs
+ *           | bits:long[1024]              otherwise
+ * footer    = cardinality:long containerCount:int (key:int count:int offset:int)*
+ * </pre>
+ *
+ * Numbers are big-endian as written by DataOutputStream. Use write to
+ * add the IDs of an OrderIdSet and save the result as a new file.
+ */
+public class OrderIdIndex {
+
+    static final byte[] MAGIC = {'O', 'R', 'D', 'E', 'R', 'I', 'D', 'X'};
+    static final int VERSION = 1;
+
+    private static final int ARRAY_LIMIT = 4096;
+    private static final int BITMAP_WORDS = 1024;
+    private static final OrderIdIndex EMPTY = new OrderIdIndex();
+
+    private final ByteBuffer buffer;
+    private final int[] keys;
+    private final int[] counts;
+    private final int[] offsets;
+    private final long cardinality;
+
+    private OrderIdIndex() {
+        buffer = null;
+        keys = new int[0];
+        counts = new int[0];
+        offsets = new int[0];
+        cardinality = 0;
+    }
+
+    public OrderIdIndex(ByteBuffer data) throws IOException {
+        this.buffer = data.slice();
+        int end = buffer.limit();
+        int magic = MAGIC.length;
+        if (end < magic * 2 + 8 || !hasMagic(0) || !hasMagic(end - magic)) {
+            throw new IOException("Not an order ID index");
+        }
+        int version = buffer.getInt(magic);
+        if (version != VERSION) {
+            throw new IOException("Unsupported version " + version);
+        }
+
+        int footerLength = buffer.getInt(end - magic - 4);
+        ByteBuffer in = buffer.duplicate();
+        in.position(end - magic - 4 - footerLength);
+        cardinality = in.getLong();
+        int containers = in.getInt();
+        keys = new int[containers];
+        counts = new int[containers];
+        offsets = new int[containers];
+        for (int i = 0; i < containers; i++) {
+            keys[i] = in.getInt();
+            counts[i] = in.getInt();
+            offsets[i] = in.getInt();
+        }
+    }
+
+    /**
+     * @return An index without any IDs.
+     */
+    public static OrderIdIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Map a file into memory and read its directory.
+     */
+    public static OrderIdIndex open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("File too large to map: " + path);
+            }
+            return new OrderIdIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public boolean contains(int orderId) {
+        int i = Arrays.binarySearch(keys, orderId >>> 16);
+        if (i < 0) {
+            return false;
+        }
+        int low = orderId & 0xffff;
+        int offset = offsets[i];
+        if (counts[i] > ARRAY_LIMIT) {
+            long word = buffer.getLong(offset + (low >>> 6) * Long.BYTES);
+            return (word & (1L << low)) != 0;
+        }
+        int lo = 0;
+        int hi = counts[i] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int value = buffer.getChar(offset + mid * Character.BYTES);
+            if (value < low) {
+                lo = mid + 1;
+            } else if (value > low) {
+                hi = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The number of IDs in the index.
+     */
+    public long size() {
+        return cardinality;
+    }
+
+    /**
+     * Write a new index with the IDs of this one and those of added.
+     */
+    public void write(OutputStream output, OrderIdSet added) throws IOException {
+        int[] ids = added.toArray();
+        // Sort unsigned, so IDs are grouped by container in key order.
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] ^= Integer.MIN_VALUE;
+        }
+        Arrays.sort(ids);
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] ^= Integer.MIN_VALUE;
+        }
+
+        CountingOutputStream counter = new CountingOutputStream(output);
+        DataOutputStream out = new DataOutputStream(counter);
+        out.write(MAGIC);
+        out.writeInt(VERSION);
+
+        IntList directory = new IntList();
+        char[] lows = new char[1 << 16];
+        char[] merged = new char[1 << 16];
+        long total = 0;
+        int container = 0;
+        int next = 0;
+        while (container < keys.length || next < ids.length) {
+            int key;
+            if (next == ids.length) {
+                key = keys[container];
+            } else if (container == keys.length) {
+                key = ids[next] >>> 16;
+            } else {
+                key = Math.min(keys[container], ids[next] >>> 16);
+            }
+            int count = 0;
+            if (container < keys.length && keys[container] == key) {
+                count = readContainer(container++, lows);
+            }
+            int end = next;
+            while (end < ids.length && ids[end] >>> 16 == key) {
+                end++;
+            }
+            count = union(lows, count, ids, next, end, merged);
+            next = end;
+
+            directory.add(key);
+            directory.add(count);
+            directory.add((int) counter.count);
+            writeContainer(out, merged, count);
+            total += count;
+        }
+
+        long footerStart = counter.count;
+        out.writeLong(total);
+        out.writeInt(directory.size / 3);
+        for (int i = 0; i < directory.size; i++) {
+            out.writeInt(directory.values[i]);
+        }
+        out.writeInt((int) (counter.count - footerStart));
+        out.write(MAGIC);
+        out.flush();
+    }
+
+    /**
+     * Copy the low bits of the IDs of a container, in order.
+     *
+     * @return The number of IDs.
+     */
+    private int readContainer(int i, char[] lows) {
+        int offset = offsets[i];
+        if (counts[i] <= ARRAY_LIMIT) {
+            for (int n = 0; n < counts[i]; n++) {
+                lows[n] = buffer.getChar(offset + n * Character.BYTES);
+            }
+            return counts[i];
+        }
+        int n = 0;
+        for (int w = 0; w < BITMAP_WORDS; w++) {
+            long word = buffer.getLong(offset + w * Long.BYTES);
+            while (word != 0) {
+                lows[n++] = (char) (w * 64 + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Merge the sorted low bits of a container with the low bits of the
+     * sorted IDs ids[from, to), dropping duplicates.
+     *
+     * @return The number of values in merged.
+     */
+    private static int union(char[] lows, int count, int[] ids, int from, int to, char[] merged) {
+        int n = 0;
+        int a = 0;
+        int b = from;
+        while (a < count || b < to) {
+            int value;
+            if (b == to || (a < count && lows[a] <= (char) ids[b])) {
+                value = lows[a++];
+            } else {
+                value = (char) ids[b++];
+            }
+            if (n == 0 || merged[n - 1] != value) {
+                merged[n++] = (char) value;
+            }
+        }
+        return n;
+    }
+
+    private static void writeContainer(DataOutputStream out, char[] values, int count) throws IOException {
+        if (count <= ARRAY_LIMIT) {
+            for (int i = 0; i < count; i++) {
+                out.writeChar(values[i]);
+            }
+            return;
+        }
+        long[] bits = new long[BITMAP_WORDS];
+        for (int i = 0; i < count; i++) {
+            bits[values[i] >>> 6] |= 1L << values[i];
+        }
+        for (long word : bits) {
+            out.writeLong(word);
+        }
+    }
+
+    private boolean hasMagic(int offset) {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(offset + i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class IntList {
+        int[] values = new int[3 * 1024];
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package lambda;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Keeps the OrderIdIndex of processed orders in the bucket, with a copy in
+ * /tmp that warm containers map instead of downloading it again.
+ *
+ * The copy in /tmp is named after the ETag of the object it was downloaded
+ * from or uploaded as, and the mapped index stays cached for the lifetime of
+ * the container. A load checks the ETag of the object with a HEAD request
+ * and only downloads it when neither matches.
+ *
+ * Saving replaces the object, so when two containers process files at the
+ * same time the index written last wins and the IDs added by the other are
+ * processed again by a later invocation.
+ */
+public final class OrderIdIndexStore {
+
+    /**
+     * Where the index was loaded from.
+     */
+    public enum Source {
+        // No index in the bucket yet
+        NEW,
+        // Index cached by this container
+        MEMORY,
+        // Copy in /tmp
+        TMP,
+        // Downloaded from the bucket
+        S3
+    }
+
+    private static final Path DIRECTORY = Paths.get(System.getProperty("java.io.tmpdir"));
+
+    private static Cached cached;
+
+    private OrderIdIndexStore() {}
+
+    /**
+     * Result of a load, the index and where it came from.
+     */
+    public static final class Loaded {
+        private final OrderIdIndex index;
+        private final Source source;
+
+        Loaded(OrderIdIndex index, Source source) {
+            this.index = index;
+            this.source = source;
+        }
+
+        public OrderIdIndex getIndex() {
+            return index;
+        }
+
+        public Source getSource() {
+            return source;
+        }
+    }
+
+    /**
+     * Load the current index of a bucket, empty if there is none yet.
+     */
+    public static synchronized Loaded load(AmazonS3 s3Client, String bucketname, String key) throws IOException {
+        String etag;
+        try {
+            etag = s3Client.getObjectMetadata(bucketname, key).getETag();
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == 404) {
+                return new Loaded(OrderIdIndex.empty(), Source.NEW);
+            }
+            throw e;
+        }
+        if (cached != null && cached.matches(bucketname, key, etag)) {
+            return new Loaded(cached.index, Source.MEMORY);
+        }
+        Path path = localPath(bucketname, key, etag);
+        if (etag != null && Files.exists(path)) {
+            return new Loaded(cache(bucketname, key, etag, path), Source.TMP);
+        }
+
+        // The object may have been replaced since the HEAD request, so the
+        // copy is named after the ETag of the object actually downloaded.
+        Path download = Files.createTempFile(DIRECTORY, prefix(bucketname, key), ".part");
+        try (S3Object object = s3Client.getObject(new GetObjectRequest(bucketname, key));
+             InputStream in = object.getObjectContent()) {
+            Files.copy(in, download, StandardCopyOption.REPLACE_EXISTING);
+            etag = object.getObjectMetadata().getETag();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(download);
+            throw e;
+        }
+        path = localPath(bucketname, key, etag);
+        Files.move(download, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new Loaded(cache(bucketname, key, etag, path), Source.S3);
+    }
+
+    /**
+     * Upload the IDs of a loaded index together with the IDs added in this
+     * invocation as the new index. Nothing is uploaded if no ID was added.
+     *
+     * @return The saved index.
+     */
+    public static synchronized OrderIdIndex save(AmazonS3 s3Client, String bucketname, String key,
+                                                 OrderIdIndex loaded, OrderIdSet added) throws IOException {
+        if (added.size() == 0) {
+            return loaded;
+        }
+        Path file = Files.createTempFile(DIRECTORY, prefix(bucketname, key), ".part");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024)) {
+                loaded.write(out, added);
+            }
+            ObjectMetadata meta = new ObjectMetadata();
+            meta.setContentType("application/octet-stream");
+            String etag = s3Client.putObject(new PutObjectRequest(bucketname, key, file.toFile()).withMetadata(meta)).getETag();
+            Path path = localPath(bucketname, key, etag);
+            Files.move(file, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return cache(bucketname, key, etag, path);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Map a copy in /tmp, cache it and delete older copies of the same index.
+     * A mapping stays valid after its file is deleted.
+     */
+    private static OrderIdIndex cache(String bucketname, String key, String etag, Path path) throws IOException {
+        OrderIdIndex index = OrderIdIndex.open(path);
+        try (DirectoryStream<Path> copies = Files.newDirectoryStream(DIRECTORY, prefix(bucketname, key) + "*")) {
+            for (Path copy : copies) {
+                if (!copy.equals(path) && copy.toString().endsWith(".idx")) {
+                    Files.deleteIfExists(copy);
+                }
+            }
+        }
+        // Without an ETag the copy cannot be matched to the object later.
+        cached = etag != null ? new Cached(bucketname, key, etag, index) : null;
+        return index;
+    }
+
+    private static Path localPath(String bucketname, String key, String etag) {
+        return DIRECTORY.resolve(prefix(bucketname, key) + sanitize(etag) + ".idx");
+    }
+
+    private static String prefix(String bucketname, String key) {
+        return "order-index-" + Integer.toHexString((bucketname + "/" + key).hashCode()) + "-";
+    }
+
+    private static String sanitize(String etag) {
+        return etag == null ? "none" : etag.replaceAll("[^A-Za-z0-9]", "_");
+    }
+
+    private static final class Cached {
+        final String bucketname;
+        final String key;
+        final String etag;
+        final OrderIdIndex index;
+
+        Cached(String bucketname, String key, String etag, OrderIdIndex index) {
+            this.bucketname = bucketname;
+            this.key = key;
+            this.etag = etag;
+            this.index = index;
+        }
+
+        boolean matches(String bucketname, String key, String etag) {
+            return this.bucketname.equals(bucketname) && this.key.equals(key) && this.etag.equals(etag);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package lambda;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Open addressing hash set of primitive int order IDs.
+ *
+ * Only the IDs are kept, 4 to 8 bytes per entry instead of a full Sale, so
+ * rows can be written out as soon as they are known to be new. The table can
+ * live in a direct ByteBuffer to keep it off the Java heap entirely.
+ *
+ * IDs in an optional OrderIdIndex of earlier invocations count as already
+ * seen, so only IDs that are new to both are added.
+ */
+public class OrderIdSet {
+
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final int MAX_CAPACITY = 1 << 30;
+    // A direct buffer is sized in bytes by an int, which caps its table lower.
+    private static final long MAX_DIRECT_BYTES = Integer.MAX_VALUE;
+    private static final int MAX_DIRECT_CAPACITY = 1 << 28;
+    // 0 marks an empty slot, the ID 0 itself is tracked separately.
+    private static final int EMPTY = 0;
+
+    private final boolean offHeap;
+    private final OrderIdIndex known;
+    private long knownAdds = 0;
+    private IntBuffer table;
+    private int mask;
+    private int size = 0;
+    private int resizeAt;
+    private boolean containsZero = false;
+
+    public OrderIdSet() {
+        this(false);
+    }
+
+    public OrderIdSet(boolean offHeap) {
+        this(DEFAULT_CAPACITY, offHeap);
+    }
+
+    /**
+     * @param expected Number of IDs expected, used to size the initial table.
+     * @param offHeap Store the table in a direct ByteBuffer instead of an int[].
+     */
+    public OrderIdSet(int expected, boolean offHeap) {
+        this(expected, offHeap, null);
+    }
+
+    /**
+     * @param known IDs processed before, which add rejects, or null.
+     */
+    public OrderIdSet(OrderIdIndex known, boolean offHeap) {
+        this(0, offHeap, known);
+    }
+
+    private OrderIdSet(int expected, boolean offHeap, OrderIdIndex known) {
+        this.offHeap = offHeap;
+        this.known = known;
+        allocate(tableSizeFor(expected, maxCapacity()));
+    }
+
+    /**
+     * Add an order ID.
+     *
+     * @return true if the ID was neither in the set nor in the known index.
+     */
+    public boolean add(int orderId) {
+        if (known != null && known.contains(orderId)) {
+            knownAdds++;
+            return false;
+        }
+        if (orderId == EMPTY) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+        int slot = mix(orderId) & mask;
+        while (true) {
+            int current = table.get(slot);
+            if (current == orderId) {
+                return false;
+            }
+            if (current == EMPTY) {
+                table.put(slot, orderId);
+                if (++size > resizeAt) {
+                    grow();
+                }
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    public boolean contains(int orderId) {
+        if (orderId == EMPTY) {
+            return containsZero;
+        }
+        int slot = mix(orderId) & mask;
+        while (true) {
+            int current = table.get(slot);
+            if (current == orderId) {
+                return true;
+            }
+            if (current == EMPTY) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * @return The number of IDs added, not counting those of the known index.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of times add was rejected because the ID was in the
+     * known index.
+     */
+    public long getKnownAdds() {
+        return knownAdds;
+    }
+
+    void addKnownAdds(long count) {
+        knownAdds += count;
+    }
+
+    /**
+     * @return The index of IDs processed before, or null.
+     */
+    public OrderIdIndex getKnown() {
+        return known;
+    }
+
+    /**
+     * @return The IDs added, in no particular order.
+     */
+    public int[] toArray() {
+        int[] ids = new int[size];
+        int n = 0;
+        if (containsZero) {
+            ids[n++] = EMPTY;
+        }
+        for (int i = 0; i < table.capacity(); i++) {
+            int id = table.get(i);
+            if (id != EMPTY) {
+                ids[n++] = id;
+            }
+        }
+        return ids;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * @return Bytes used by the hash table.
+     */
+    public long getTableBytes() {
+        return (long) table.capacity() * Integer.BYTES;
+    }
+
+    /**
+     * Double the table, checking the limit before the capacity can overflow.
+     */
+    private void grow() {
+        int capacity = table.capacity();
+        if (capacity >= maxCapacity()) {
+            throw new IllegalStateException("OrderIdSet is full");
+        }
+        rehash(capacity << 1);
+    }
+
+    private int maxCapacity() {
+        return offHeap ? MAX_DIRECT_CAPACITY : MAX_CAPACITY;
+    }
+
+    private void rehash(int capacity) {
+        IntBuffer old = table;
+        allocate(capacity);
+        for (int i = 0; i < old.capacity(); i++) {
+            int id = old.get(i);
+            if (id != EMPTY) {
+                int slot = mix(id) & mask;
+                while (table.get(slot) != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                table.put(slot, id);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        if (offHeap) {
+            long bytes = (long) capacity * Integer.BYTES;
+            if (bytes > MAX_DIRECT_BYTES) {
+                throw new IllegalStateException("OrderIdSet table of " + bytes + " bytes is too large for a direct buffer");
+            }
+            table = ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder()).asIntBuffer();
+        } else {
+            table = IntBuffer.allocate(capacity);
+        }
+        mask = capacity - 1;
+        // Keep the load factor at or below 0.5 so probe chains stay short.
+        resizeAt = capacity >> 1;
+    }
+
+    private static int tableSizeFor(int expected, int maxCapacity) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity < maxCapacity && capacity >> 1 < expected) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * Murmur3 finalizer, spreads sequential IDs across the table.
+     */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,353 @@
+package lambda;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parallel version of the streaming transform. The input is split into
+ * line-aligned byte ranges that are read, parsed, transformed and serialized
+ * independently on a ForkJoinPool, then appended to the output.
+ *
+ * In ordered mode chunks are appended in input order and duplicates are
+ * removed while appending, so the output is identical to the sequential
+ * transform. Otherwise each chunk dedups against the shared set as it goes
+ * and is appended as soon as it is done.
+ *
+ * Chunk boundaries are found by looking for line breaks, so quoted fields
+ * must not contain them.
+ */
+public class ParallelTransform {
+
+    private static final long MIN_CHUNK_SIZE = 1024 * 1024;
+    private static final long MAX_CHUNK_SIZE = 8 * 1024 * 1024;
+    // Bytes read past the end of a chunk for the record that crosses it.
+    private static final long LINE_MARGIN = 8 * 1024;
+    private static final long TERMINATION_TIMEOUT_SECONDS = 10;
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final int parallelism;
+    private final boolean ordered;
+
+    private SalesRollup rollup;
+
+    // Set when run fails, so tasks still running do not write to out.
+    private volatile boolean failed = false;
+
+    private final AtomicLong taskNanos = new AtomicLong();
+    private long wallNanos = 0;
+    private int chunks = 0;
+
+    /**
+     * @param parallelism Number of worker threads, 0 for one per processor.
+     * @param ordered Keep the input order and first occurrence of each order ID.
+     */
+    public ParallelTransform(int parallelism, boolean ordered) {
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.ordered = ordered;
+    }
+
+    /**
+     * Transform the whole source and write the rows to out, without a header.
+     * If it fails, no task writes to out after it returns.
+     *
+     * @param orderIds Order IDs already written, new IDs are added to it.
+     */
+    public void run(ByteRangeSource source, SalesDictionary dictionary, OrderIdSet orderIds, OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        failed = false;
+        long length = source.length();
+        long chunkSize = Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, length / (parallelism * 4L)));
+        // Bounds the number of chunk outputs held in memory at once.
+        int window = parallelism * 2;
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+        boolean done = false;
+        try {
+            long offset = 0;
+            while (offset < length || !pending.isEmpty()) {
+                while (offset < length && pending.size() < window) {
+                    long chunkStart = offset;
+                    long chunkEnd = Math.min(length, offset + chunkSize);
+                    pending.add(pool.submit(() -> transformChunk(source, chunkStart, chunkEnd, dictionary, orderIds, out)));
+                    offset = chunkEnd;
+                    chunks++;
+                }
+                Chunk chunk = join(pending.poll());
+                if (ordered) {
+                    chunk.writeNewRows(orderIds, out);
+                }
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                // Taking the lock waits for a chunk that is being written.
+                synchronized (out) {
+                    failed = true;
+                }
+            }
+            for (Future<Chunk> future : pending) {
+                future.cancel(true);
+            }
+            pool.shutdownNow();
+            awaitTermination(pool);
+            wallNanos = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Also add the rows written to a rollup. Only unordered transforms see
+     * the final rows as batches, ordered ones drop duplicates after
+     * serializing.
+     */
+    public void setRollup(SalesRollup rollup) {
+        if (ordered) {
+            throw new IllegalStateException("Rollups need an unordered transform");
+        }
+        this.rollup = rollup;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public int getChunks() {
+        return chunks;
+    }
+
+    /**
+     * @return CPU time spent in chunk tasks summed over all threads, in ms.
+     * Wall time per task if the JVM does not measure thread CPU time.
+     */
+    public long getTaskTime() {
+        return taskNanos.get() / 1_000_000;
+    }
+
+    /**
+     * @return Elapsed time of run, in ms.
+     */
+    public long getWallTime() {
+        return wallNanos / 1_000_000;
+    }
+
+    /**
+     * @return Task time divided by elapsed time, the effective number of
+     * cores kept busy.
+     */
+    public double getSpeedup() {
+        return wallNanos == 0 ? 0 : (double) taskNanos.get() / wallNanos;
+    }
+
+    private Chunk transformChunk(ByteRangeSource source, long start, long end,
+                                 SalesDictionary dictionary, OrderIdSet orderIds, OutputStream out) throws IOException {
+        long taskStart = taskClock();
+        // A chunk owns the records that start inside it. Reading from one byte
+        // early tells whether the first line is complete or belongs to the
+        // previous chunk.
+        long readFrom = start == 0 ? 0 : start - 1;
+        Chunk chunk = new Chunk((int) (end - start));
+        try (InputStream in = new ChunkInputStream(source, readFrom, end)) {
+            SalesCsvParser parser = new SalesCsvParser(in, dictionary);
+            parser.setRange(readFrom, end);
+            if (start > 0) {
+                parser.skipLine();
+            }
+            SalesBatch batch = new SalesBatch(dictionary);
+            SaleCsvWriter writer = new SaleCsvWriter(chunk);
+            // Orders known from earlier invocations are dropped before they
+            // are transformed.
+            OrderIdSet chunkOrderIds = new OrderIdSet(orderIds.getKnown(), false);
+            SalesRollup chunkRollup = rollup != null ? new SalesRollup(dictionary) : null;
+            while (!failed && parser.fill(batch) > 0) {
+                if (ordered) {
+                    // Duplicates across chunks are removed when appending.
+                    batch.retainNew(chunkOrderIds);
+                } else {
+                    synchronized (orderIds) {
+                        batch.retainNew(orderIds);
+                    }
+                }
+                batch.transform();
+                if (chunkRollup != null) {
+                    chunkRollup.add(batch);
+                }
+                for (int row = 0; row < batch.size(); row++) {
+                    writer.writeRow(batch, row);
+                    if (ordered) {
+                        chunk.addRow(batch.orderId[row], (int) writer.getBytesWritten());
+                    }
+                }
+            }
+            writer.flush();
+            if (ordered) {
+                synchronized (orderIds) {
+                    orderIds.addKnownAdds(chunkOrderIds.getKnownAdds());
+                }
+            }
+            if (chunkRollup != null) {
+                synchronized (rollup) {
+                    rollup.merge(chunkRollup);
+                }
+            }
+        }
+        if (!ordered) {
+            synchronized (out) {
+                if (!failed) {
+                    chunk.writeTo(out);
+                }
+            }
+        }
+        taskNanos.addAndGet(taskClock() - taskStart);
+        return chunk;
+    }
+
+    private static long taskClock() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    /**
+     * Wait for tasks that were already running, they do not stop on interrupt.
+     */
+    private static void awaitTermination(ForkJoinPool pool) {
+        try {
+            pool.awaitTermination(TERMINATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Chunk join(Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while transforming", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new UncheckedIOException(new IOException(cause));
+        }
+    }
+
+    /**
+     * The bytes of a chunk and a margin for the record that crosses its end,
+     * requested as one bounded range so the connection can be drained and
+     * reused. A record longer than the margin continues in an open-ended
+     * range.
+     */
+    private static final class ChunkInputStream extends InputStream {
+        private final ByteRangeSource source;
+        private final long length;
+        private final long rangeEnd;
+        private InputStream in;
+        private long offset;
+        private boolean continued = false;
+
+        ChunkInputStream(ByteRangeSource source, long start, long end) throws IOException {
+            this.source = source;
+            this.length = source.length();
+            this.rangeEnd = Math.min(length, end + LINE_MARGIN);
+            this.in = source.open(start, rangeEnd);
+            this.offset = start;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n < 0 && !continued && offset < length) {
+                in.close();
+                in = source.open(offset);
+                continued = true;
+                n = in.read(b, off, len);
+            }
+            if (n > 0) {
+                offset += n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                // The parser stops at the end of the chunk, usually inside the
+                // margin. Reading the rest keeps the connection, more than
+                // that is cheaper to abort.
+                if (!continued && rangeEnd - offset <= LINE_MARGIN) {
+                    byte[] skip = new byte[(int) (rangeEnd - offset) + 1];
+                    while (in.read(skip, 0, skip.length) >= 0) {
+                        // Drain.
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Serialized rows of one chunk, with the order ID and end offset of each
+     * row in ordered mode.
+     */
+    private static final class Chunk extends ByteArrayOutputStream {
+        private int[] orderIds = new int[1024];
+        private int[] rowEnds = new int[1024];
+        private int rows = 0;
+
+        Chunk(int inputSize) {
+            // Output rows are about 10% longer than input rows.
+            super(inputSize + inputSize / 8);
+        }
+
+        void addRow(int orderId, int end) {
+            if (rows == orderIds.length) {
+                orderIds = Arrays.copyOf(orderIds, rows * 2);
+                rowEnds = Arrays.copyOf(rowEnds, rows * 2);
+            }
+            orderIds[rows] = orderId;
+            rowEnds[rows++] = end;
+        }
+
+        /**
+         * Write the rows whose order ID is not in seen yet, in one write per
+         * run of consecutive new rows.
+         */
+        void writeNewRows(OrderIdSet seen, OutputStream out) throws IOException {
+            int runStart = 0;
+            int rowStart = 0;
+            for (int i = 0; i < rows; i++) {
+                if (!seen.add(orderIds[i])) {
+                    out.write(buf, runStart, rowStart - runStart);
+                    runStart = rowEnds[i];
+                }
+                rowStart = rowEnds[i];
+            }
+            out.write(buf, runStart, rowStart - runStart);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package lambda;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * OutputStream that gzips on its own thread. Written bytes are collected in
+ * pooled blocks that are handed to the compressor thread, so compression
+ * runs alongside the parsing and transforming that produce the bytes
+ * instead of after them.
+ *
+ * At most QUEUED_BLOCKS blocks wait for the compressor. A writer that gets
+ * ahead of it waits for a block to be returned.
+ */
+public class PipelinedGzipOutputStream extends OutputStream {
+
+    private static final int BLOCK_SIZE = 256 * 1024;
+    private static final int QUEUED_BLOCKS = 4;
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    // How long abort waits for the compressor to stop writing to the target.
+    private static final long ABORT_TIMEOUT_MILLIS = 10_000;
+
+    // Marks the end of the data in the queue.
+    private static final Block END = new Block(new byte[0], 0);
+
+    private final OutputStream target;
+    private final BlockingQueue<Block> full = new ArrayBlockingQueue<>(QUEUED_BLOCKS);
+    private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(QUEUED_BLOCKS + 1);
+    private final Thread compressor;
+    private volatile Throwable failure;
+
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int blocks = 1;
+    private int position = 0;
+    private long bytesWritten = 0;
+    private long waitNanos = 0;
+    private boolean finished = false;
+
+    public PipelinedGzipOutputStream(OutputStream target) {
+        this(target, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level Deflate level, 0 (stored) to 9 (smallest), or
+     * Deflater.DEFAULT_COMPRESSION.
+     */
+    public PipelinedGzipOutputStream(OutputStream target, int level) {
+        if ((level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        this.target = target;
+        this.compressor = new Thread(() -> compress(level), "gzip-" + THREAD_COUNT.incrementAndGet());
+        this.compressor.setDaemon(true);
+        this.compressor.start();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (position == block.length) {
+            handOff();
+        }
+        block[position++] = (byte) b;
+        bytesWritten++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (position == block.length) {
+                handOff();
+            }
+            int n = Math.min(len, block.length - position);
+            System.arraycopy(b, off, block, position, n);
+            position += n;
+            off += n;
+            len -= n;
+            bytesWritten += n;
+        }
+    }
+
+    /**
+     * Compress the remaining bytes and write the gzip trailer, without
+     * closing the target.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        ensureOpen();
+        if (position > 0) {
+            handOff();
+        }
+        finished = true;
+        put(END);
+        try {
+            compressor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        }
+        checkFailure();
+    }
+
+    /**
+     * Finish the gzip stream and close the target.
+     */
+    @Override
+    public void close() throws IOException {
+        finish();
+        target.close();
+    }
+
+    /**
+     * Stop the compressor thread without finishing the gzip stream or
+     * closing the target, after a failure elsewhere. Waits for the thread to
+     * end, so the target can be aborted next without a write racing it.
+     */
+    public void abort() {
+        finished = true;
+        compressor.interrupt();
+        try {
+            compressor.join(ABORT_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return The number of uncompressed bytes written so far.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return Time the writer spent waiting for the compressor, in ms.
+     */
+    public long getWaitTime() {
+        return waitNanos / 1_000_000;
+    }
+
+    private void handOff() throws IOException {
+        put(new Block(block, position));
+        position = 0;
+        if (blocks <= QUEUED_BLOCKS && free.isEmpty()) {
+            block = new byte[BLOCK_SIZE];
+            blocks++;
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            block = free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } finally {
+            waitNanos += System.nanoTime() - start;
+        }
+        checkFailure();
+    }
+
+    private void put(Block b) throws IOException {
+        checkFailure();
+        long start = System.nanoTime();
+        try {
+            full.put(b);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } finally {
+            waitNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Compressor thread. After a failure, including an Error such as running
+     * out of memory for the deflater, it keeps taking blocks until the end
+     * marker, so the writer never waits forever and sees the failure.
+     */
+    private void compress(int level) {
+        boolean ended = false;
+        try {
+            GZIPOutputStream gzip = new GZIPOutputStream(new UnclosedOutputStream(target), BLOCK_SIZE) {
+                {
+                    def.setLevel(level);
+                }
+            };
+            while (true) {
+                Block b = full.take();
+                if (b == END) {
+                    ended = true;
+                    // Writes the trailer and releases the deflater, the
+                    // target stays open.
+                    gzip.close();
+                    target.flush();
+                    return;
+                }
+                gzip.write(b.data, 0, b.length);
+                free.put(b.data);
+            }
+        } catch (InterruptedException e) {
+            // Aborted
+        } catch (Throwable t) {
+            failure = t;
+            if (!ended) {
+                drain();
+            }
+        }
+    }
+
+    /**
+     * Return queued blocks to the writer until the end marker or an abort.
+     */
+    private void drain() {
+        try {
+            Block b;
+            while ((b = full.take()) != END) {
+                free.put(b.data);
+            }
+        } catch (InterruptedException e) {
+            // Aborted
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable t = failure;
+        if (t != null) {
+            if (t instanceof IOException) {
+                throw new IOException("Compression failed", t);
+            }
+            throw new IllegalStateException("Compression failed", t);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (finished) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    private static final class Block {
+        final byte[] data;
+        final int length;
+
+        Block(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Keeps GZIPOutputStream from closing the target, which is closed by the
+     * writer once everything has been compressed.
+     */
+    private static final class UnclosedOutputStream extends FilterOutputStream {
+        UnclosedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
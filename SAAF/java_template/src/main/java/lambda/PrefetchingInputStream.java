@@ -0,0 +1,226 @@
+package lambda;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * InputStream over a ByteRangeSource that fetches the parts ahead of the
+ * reader with concurrent range requests, so a large S3 object is not limited
+ * to the throughput of a single HTTP connection. Parts are handed to the
+ * reader in order.
+ *
+ * Part buffers are recycled, and at most concurrency parts are fetched while
+ * one is being read, so memory use is bounded by
+ * (concurrency + 1) * partSize regardless of the object size.
+ */
+public class PrefetchingInputStream extends InputStream {
+
+    public static final int DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private final ByteRangeSource source;
+    private final long end;
+    private final int bufferSize;
+    private final int concurrency;
+    private final ExecutorService executor;
+
+    private final ArrayDeque<Future<Part>> pending = new ArrayDeque<>();
+    private final ArrayDeque<byte[]> freeBuffers = new ArrayDeque<>();
+    private long nextOffset;
+    private Part current;
+    private int parts = 0;
+    private long waitNanos = 0;
+    private boolean closed = false;
+
+    /**
+     * Read the whole source.
+     *
+     * @param concurrency Number of range requests kept in flight.
+     */
+    public PrefetchingInputStream(ByteRangeSource source, int concurrency) throws IOException {
+        this(source, 0, source.length(), concurrency, DEFAULT_PART_SIZE);
+    }
+
+    /**
+     * Read the bytes from start up to, not including, end.
+     *
+     * @param concurrency Number of range requests kept in flight.
+     * @param partSize Size of each range request.
+     */
+    public PrefetchingInputStream(ByteRangeSource source, long start, long end, int concurrency, int partSize) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        }
+        if (partSize < 1) {
+            throw new IllegalArgumentException("Part size must be at least 1 byte");
+        }
+        this.source = source;
+        this.end = end;
+        this.nextOffset = start;
+        this.bufferSize = (int) Math.max(0, Math.min(partSize, end - start));
+        this.concurrency = concurrency;
+        this.executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "s3-prefetch-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensurePart()) {
+            return -1;
+        }
+        return current.buffer[current.position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensurePart()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - current.position);
+        System.arraycopy(current.buffer, current.position, b, off, n);
+        current.position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.length - current.position;
+    }
+
+    /**
+     * Cancel the requests still in flight and stop the fetch threads.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Future<Part> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+        executor.shutdownNow();
+        current = null;
+        freeBuffers.clear();
+    }
+
+    /**
+     * @return The number of parts handed to the reader so far.
+     */
+    public int getParts() {
+        return parts;
+    }
+
+    /**
+     * @return Time the reader spent waiting for parts to arrive, in ms.
+     */
+    public long getWaitTime() {
+        return waitNanos / 1_000_000;
+    }
+
+    /**
+     * Make sure the current part has unread bytes, moving on to the next
+     * part if needed.
+     *
+     * @return False at the end of the range.
+     */
+    private boolean ensurePart() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (current != null && current.position < current.length) {
+            return true;
+        }
+        if (current != null) {
+            freeBuffers.add(current.buffer);
+            current = null;
+        }
+        fetchAhead();
+        Future<Part> next = pending.poll();
+        if (next == null) {
+            return false;
+        }
+        current = await(next);
+        parts++;
+        fetchAhead();
+        return true;
+    }
+
+    private void fetchAhead() {
+        while (pending.size() < concurrency && nextOffset < end) {
+            long start = nextOffset;
+            int length = (int) Math.min(bufferSize, end - start);
+            byte[] buffer = freeBuffers.isEmpty() ? new byte[bufferSize] : freeBuffers.poll();
+            pending.add(executor.submit(() -> fetch(start, buffer, length)));
+            nextOffset += length;
+        }
+    }
+
+    private Part fetch(long start, byte[] buffer, int length) throws IOException {
+        try (InputStream in = source.open(start, start + length)) {
+            int read = 0;
+            while (read < length) {
+                int n = in.read(buffer, read, length - read);
+                if (n < 0) {
+                    throw new EOFException("Range at " + start + " ended after " + read + " of " + length + " bytes");
+                }
+                read += n;
+            }
+            // Reaching the end lets the connection be reused.
+            if (in.read() >= 0) {
+                throw new IOException("Range at " + start + " is longer than " + length + " bytes");
+            }
+        }
+        return new Part(buffer, length);
+    }
+
+    private Part await(Future<Part> future) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            waitNanos += System.nanoTime() - start;
+        }
+    }
+
+    private static final class Part {
+        final byte[] buffer;
+        final int length;
+        int position = 0;
+
+        Part(byte[] buffer, int length) {
+            this.buffer = buffer;
+            this.length = length;
+        }
+    }
+}
@@ -11,6 +11,53 @@ public class Request {
     String bucketname;
     String filename;
 
+    // Collect the whole output in memory and upload it with a single putObject
+    // instead of streaming it through a multipart upload.
+    boolean buffered;
+
+    // Keep the order ID dedup table in a direct buffer outside the Java heap.
+    boolean offHeap;
+
+    // Keep the text dictionary for the lifetime of the container.
+    boolean cacheDictionary;
+
+    // Transform line-aligned chunks of the input on several threads.
+    boolean parallel;
+    // Worker threads for the parallel transform, 0 for one per processor.
+    int parallelism;
+    // Keep the input order and first occurrence of each order ID when parallel.
+    boolean ordered;
+
+    // Ranged GETs kept in flight when streaming the input, 0 for a single GET.
+    int prefetch;
+
+    // Gzip the output on a separate thread and add .gz to its name.
+    boolean compress;
+    // Deflate level for compressed output, 1 (fastest) to 9 (smallest), 0 for the default.
+    int compressionLevel;
+
+    // Output format, "csv" (default) or "columnar" for SalesColumnarWriter
+    // files. Columnar output is always written by the streaming transform.
+    String format;
+
+    // Also write totals per region, country, item type and sales channel to
+    // <name>-rollup.csv. Buffered requests are streamed instead, and parallel
+    // requests must be unordered to stay parallel.
+    boolean rollup;
+
+    // Key of an OrderIdIndex in the bucket. When set, orders processed by
+    // earlier invocations are skipped and the new ones are added to the
+    // index. Buffered requests are streamed instead.
+    String indexKey;
+
+    // Add garbage collection, heap, JIT and class loading counters and their
+    // deltas to the output, see Inspector.inspectJVM.
+    boolean inspectJvm;
+
+    // Add CPU time and heap allocation of the handler thread and their deltas
+    // to the output, see Inspector.inspectThread.
+    boolean inspectThread;
+
     public String getName() {
         return name;
     }
@@ -51,4 +98,120 @@ public class Request {
     public void setFilename(String filename) {
         this.filename = filename;
     }
+
+    public boolean isBuffered() {
+        return buffered;
+    }
+
+    public void setBuffered(boolean buffered) {
+        this.buffered = buffered;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    public boolean isCacheDictionary() {
+        return cacheDictionary;
+    }
+
+    public void setCacheDictionary(boolean cacheDictionary) {
+        this.cacheDictionary = cacheDictionary;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
+
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    public void setPrefetch(int prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    public boolean isCompress() {
+        return compress;
+    }
+
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public void setFormat(String format) {
+        this.format = format;
+    }
+
+    public boolean isColumnar() {
+        return "columnar".equalsIgnoreCase(format);
+    }
+
+    public boolean isRollup() {
+        return rollup;
+    }
+
+    public void setRollup(boolean rollup) {
+        this.rollup = rollup;
+    }
+
+    public String getIndexKey() {
+        return indexKey;
+    }
+
+    public void setIndexKey(String indexKey) {
+        this.indexKey = indexKey;
+    }
+
+    public boolean isInspectJvm() {
+        return inspectJvm;
+    }
+
+    public void setInspectJvm(boolean inspectJvm) {
+        this.inspectJvm = inspectJvm;
+    }
+
+    public boolean isInspectThread() {
+        return inspectThread;
+    }
+
+    public void setInspectThread(boolean inspectThread) {
+        this.inspectThread = inspectThread;
+    }
 }
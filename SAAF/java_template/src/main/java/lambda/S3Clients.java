@@ -0,0 +1,78 @@
+package lambda;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+
+/**
+ * Container-lifetime S3 client. Lambda keeps static state between warm
+ * invocations, so the client, its credentials and its pooled connections
+ * are set up once per container and shared by every read and write.
+ */
+public final class S3Clients {
+
+    /**
+     * Enough connections for the prefetched reads, the parallel range reads
+     * and the part uploads of one invocation to run at the same time.
+     */
+    public static final int MAX_CONNECTIONS = 64;
+
+    private static volatile AmazonS3 client;
+    private static long setupNanos = 0;
+
+    private S3Clients() {}
+
+    /**
+     * @return The shared client, built on first use.
+     */
+    public static AmazonS3 get() {
+        AmazonS3 s3Client = client;
+        if (s3Client == null) {
+            synchronized (S3Clients.class) {
+                s3Client = client;
+                if (s3Client == null) {
+                    long start = System.nanoTime();
+                    s3Client = AmazonS3ClientBuilder.standard()
+                            .withClientConfiguration(newClientConfiguration())
+                            .build();
+                    setupNanos = System.nanoTime() - start;
+                    client = s3Client;
+                }
+            }
+        }
+        return s3Client;
+    }
+
+    /**
+     * @return True if the shared client has been built (or set) already, so
+     * the next call to get reuses it.
+     */
+    public static boolean isCached() {
+        return client != null;
+    }
+
+    /**
+     * @return Time it took to build the shared client, in ms.
+     */
+    public static long getSetupTime() {
+        return setupNanos / 1_000_000;
+    }
+
+    /**
+     * Replace the shared client, for example with a client for an
+     * S3-compatible endpoint when running outside of Lambda. Null drops the
+     * cached client so the next call to get builds a new one.
+     */
+    public static synchronized void set(AmazonS3 s3Client) {
+        client = s3Client;
+        setupNanos = 0;
+    }
+
+    private static ClientConfiguration newClientConfiguration() {
+        return new ClientConfiguration()
+                .withMaxConnections(MAX_CONNECTIONS)
+                // Keep idle connections open across warm invocations.
+                .withTcpKeepAlive(true)
+                .withConnectionMaxIdleMillis(60_000);
+    }
+}
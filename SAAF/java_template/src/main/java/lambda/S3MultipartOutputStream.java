@@ -0,0 +1,374 @@
+package lambda;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * OutputStream that uploads to S3 in fixed-size multipart parts. Full parts
+ * are uploaded on background threads while the caller keeps writing, so the
+ * upload overlaps the work producing the output. Output that fits in a
+ * single part is sent with a plain putObject instead.
+ *
+ * Part buffers are pooled: at most concurrency parts are uploading while one
+ * is being filled, so memory use is bounded by (concurrency + 1) * partSize
+ * regardless of the object size. A writer that gets ahead of the uploads
+ * waits for the oldest part to finish.
+ *
+ * Writing and closing happen on one thread. abort may be called from another
+ * one, so the upload state it shares with the writer, the pending parts,
+ * their ETags and the upload ID, is only accessed while holding the lock of
+ * the stream. The writer does not hold it while waiting for a part.
+ */
+public class S3MultipartOutputStream extends OutputStream {
+
+    /**
+     * S3 rejects parts smaller than 5 MB (except the last one).
+     */
+    public static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+    public static final int DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    // How long abort waits for part uploads that already started.
+    private static final long ABORT_TIMEOUT_SECONDS = 10;
+
+    private final AmazonS3 s3Client;
+    private final String bucketname;
+    private final String key;
+    private final String contentType;
+    private final int partSize;
+    private final int concurrency;
+
+    // Guarded by this.
+    private final ArrayDeque<PendingPart> pending = new ArrayDeque<>();
+    private final List<PartETag> partETags = new ArrayList<>();
+    private ExecutorService executor;
+    private String uploadId;
+
+    private final ArrayDeque<byte[]> freeParts = new ArrayDeque<>();
+    private byte[] part;
+    private int partNumber = 0;
+    private int position = 0;
+    private long bytesWritten = 0;
+    private long waitNanos = 0;
+    private boolean closed = false;
+    // Set by abort, which may run on another thread than the writer.
+    private boolean aborted = false;
+
+    public S3MultipartOutputStream(AmazonS3 s3Client, String bucketname, String key, String contentType) {
+        this(s3Client, bucketname, key, contentType, DEFAULT_PART_SIZE, DEFAULT_CONCURRENCY);
+    }
+
+    public S3MultipartOutputStream(AmazonS3 s3Client, String bucketname, String key, String contentType, int partSize) {
+        this(s3Client, bucketname, key, contentType, partSize, DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * @param concurrency Number of parts uploaded at the same time.
+     */
+    public S3MultipartOutputStream(AmazonS3 s3Client, String bucketname, String key, String contentType, int partSize, int concurrency) {
+        if (partSize < MIN_PART_SIZE) {
+            throw new IllegalArgumentException("Part size must be at least " + MIN_PART_SIZE + " bytes");
+        }
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        }
+        this.s3Client = s3Client;
+        this.bucketname = bucketname;
+        this.key = key;
+        this.contentType = contentType;
+        this.partSize = partSize;
+        this.concurrency = concurrency;
+        this.part = new byte[partSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (position == part.length) {
+            uploadPart();
+        }
+        part[position++] = (byte) b;
+        bytesWritten++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (position == part.length) {
+                uploadPart();
+            }
+            int n = Math.min(len, part.length - position);
+            System.arraycopy(b, off, part, position, n);
+            position += n;
+            off += n;
+            len -= n;
+            bytesWritten += n;
+        }
+    }
+
+    /**
+     * Finish the upload. Parts already sent are completed into one object, a
+     * failure aborts the multipart upload so no orphaned parts are billed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        String id;
+        synchronized (this) {
+            if (aborted) {
+                throw abortedException();
+            }
+            id = uploadId;
+        }
+        try {
+            if (id == null) {
+                ObjectMetadata meta = newMetadata();
+                meta.setContentLength(position);
+                s3Client.putObject(bucketname, key, new ByteArrayInputStream(part, 0, position), meta);
+                return;
+            }
+            if (position > 0) {
+                uploadPart();
+            }
+            while (pendingCount() > 0) {
+                awaitOldest();
+            }
+            List<PartETag> etags;
+            synchronized (this) {
+                etags = new ArrayList<>(partETags);
+            }
+            s3Client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketname, key, id, etags));
+        } catch (IOException | RuntimeException e) {
+            abortAfter(e);
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            }
+            throw new IOException("Upload of s3://" + bucketname + "/" + key + " failed", e);
+        } finally {
+            shutdown();
+        }
+    }
+
+    /**
+     * Abort the multipart upload, discarding every part sent so far. Part
+     * uploads still running are cancelled first so none of them lands after
+     * the abort, and no part is started after it.
+     */
+    public synchronized void abort() {
+        aborted = true;
+        closed = true;
+        for (PendingPart p : pending) {
+            p.future.cancel(true);
+        }
+        pending.clear();
+        if (executor != null) {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(ABORT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (uploadId != null) {
+            s3Client.abortMultipartUpload(new AbortMultipartUploadRequest(bucketname, key, uploadId));
+            uploadId = null;
+        }
+    }
+
+    private void abortAfter(Exception cause) {
+        try {
+            abort();
+        } catch (RuntimeException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    /**
+     * @return The number of bytes written to the stream so far.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return The number of multipart parts started, 0 if the output was sent
+     * with a single putObject.
+     */
+    public int getParts() {
+        return partNumber;
+    }
+
+    /**
+     * @return Time the writer spent waiting for part uploads, in ms.
+     */
+    public long getWaitTime() {
+        return waitNanos / 1_000_000;
+    }
+
+    /**
+     * Hand the current part to a background upload and continue with a free
+     * part buffer.
+     */
+    private void uploadPart() throws IOException {
+        synchronized (this) {
+            if (aborted) {
+                throw abortedException();
+            }
+            try {
+                if (uploadId == null) {
+                    uploadId = s3Client.initiateMultipartUpload(
+                            new InitiateMultipartUploadRequest(bucketname, key, newMetadata())).getUploadId();
+                    executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+                        Thread thread = new Thread(runnable, "s3-upload-" + THREAD_COUNT.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            } catch (RuntimeException e) {
+                abortAfter(e);
+                throw new IOException("Upload of s3://" + bucketname + "/" + key + " failed", e);
+            }
+            UploadPartRequest request = new UploadPartRequest()
+                    .withBucketName(bucketname)
+                    .withKey(key)
+                    .withUploadId(uploadId)
+                    .withPartNumber(++partNumber)
+                    .withInputStream(new ByteArrayInputStream(part, 0, position))
+                    .withPartSize(position);
+            pending.add(new PendingPart(part, executor.submit(() -> s3Client.uploadPart(request).getPartETag())));
+        }
+        part = null;
+        position = 0;
+
+        // Collect finished parts so a failure surfaces early.
+        while (oldestDone()) {
+            awaitOldest();
+        }
+        if (freeParts.isEmpty() && pendingCount() >= concurrency) {
+            awaitOldest();
+        }
+        part = freeParts.isEmpty() ? new byte[partSize] : freeParts.poll();
+    }
+
+    /**
+     * Wait for the oldest part upload and recycle its buffer. Parts are
+     * collected in order, so the ETags stay sorted by part number.
+     */
+    private void awaitOldest() throws IOException {
+        PendingPart oldest;
+        int number;
+        // The part stays pending while it is awaited, so an abort on another
+        // thread still cancels it.
+        synchronized (this) {
+            oldest = pending.peek();
+            number = partETags.size() + 1;
+        }
+        if (oldest == null) {
+            // Cleared by an abort on another thread.
+            throw abortedException();
+        }
+        long start = System.nanoTime();
+        try {
+            PartETag etag = oldest.future.get();
+            synchronized (this) {
+                if (pending.peek() != oldest) {
+                    throw abortedException();
+                }
+                pending.poll();
+                partETags.add(etag);
+            }
+            freeParts.add(oldest.buffer);
+        } catch (CancellationException e) {
+            throw abortedException();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abortAfter(e);
+            throw new IOException("Interrupted while uploading", e);
+        } catch (ExecutionException e) {
+            if (isAborted()) {
+                // Interrupted by the abort.
+                throw abortedException();
+            }
+            IOException failure = new IOException("Upload of part " + number + " failed", e.getCause());
+            abortAfter(failure);
+            throw failure;
+        } finally {
+            waitNanos += System.nanoTime() - start;
+        }
+    }
+
+    private synchronized boolean oldestDone() {
+        PendingPart oldest = pending.peek();
+        return oldest != null && oldest.future.isDone();
+    }
+
+    private synchronized boolean isAborted() {
+        return aborted;
+    }
+
+    private synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    private IOException abortedException() {
+        return new IOException("Upload of s3://" + bucketname + "/" + key + " was aborted");
+    }
+
+    private void shutdown() {
+        ExecutorService executor;
+        synchronized (this) {
+            executor = this.executor;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        freeParts.clear();
+        part = null;
+    }
+
+    private ObjectMetadata newMetadata() {
+        ObjectMetadata meta = new ObjectMetadata();
+        meta.setContentType(contentType);
+        return meta;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    private static final class PendingPart {
+        final byte[] buffer;
+        final Future<PartETag> future;
+
+        PendingPart(byte[] buffer, Future<PartETag> future) {
+            this.buffer = buffer;
+            this.future = future;
+        }
+    }
+}
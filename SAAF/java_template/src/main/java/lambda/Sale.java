@@ -1,38 +1,59 @@
 package lambda;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoUnit;
 import java.util.Objects;
 
 public class Sale {
-    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("M/d/yyyy");
+    // Order priority labels indexed by the priority letter.
+    private static final String[] PRIORITY_LABELS = new String['Z' + 1];
+
+    static {
+        PRIORITY_LABELS['L'] = "Low";
+        PRIORITY_LABELS['M'] = "Medium";
+        PRIORITY_LABELS['H'] = "High";
+        PRIORITY_LABELS['C'] = "Critical";
+    }
 
     String region;
     String country;
     String itemType;
     String salesChannel;
     String orderPriority;
-    LocalDate orderDate;
+    // Dates are stored as epoch days, see SalesDates.
+    int orderDate = SalesDates.NONE;
     int orderId;
-    LocalDate shipDate;
+    int shipDate = SalesDates.NONE;
     int unitsSold;
-    BigDecimal unitPrice;
-    BigDecimal unitCost;
-    BigDecimal totalRevenue;
-    BigDecimal totalCost;
-    BigDecimal totalProfit;
+    // Monetary values are stored as Money amounts.
+    long unitPrice;
+    long unitCost;
+    long totalRevenue;
+    long totalCost;
+    long totalProfit;
 
     // New Variables
     int orderProcessingTime;
-    BigDecimal grossMargin;
+    // Money amount with two decimals
+    long grossMargin;
 
     public Sale() {
     }
 
     public Sale(String region, String country, String itemType, String salesChannel, String orderPriority, LocalDate orderDate, int orderId, LocalDate shipDate, int unitsSold, BigDecimal unitPrice, BigDecimal unitCost, BigDecimal totalRevenue, BigDecimal totalCost, BigDecimal totalProfit) {
+        this(region, country, itemType, salesChannel, orderPriority,
+                SalesDates.fromLocalDate(orderDate), orderId, SalesDates.fromLocalDate(shipDate), unitsSold,
+                Money.fromBigDecimal(unitPrice),
+                Money.fromBigDecimal(unitCost),
+                Money.fromBigDecimal(totalRevenue),
+                Money.fromBigDecimal(totalCost),
+                Money.fromBigDecimal(totalProfit));
+    }
+
+    /**
+     * Create a sale from dates in epoch days and Money amounts.
+     */
+    public Sale(String region, String country, String itemType, String salesChannel, String orderPriority, int orderDate, int orderId, int shipDate, int unitsSold, long unitPrice, long unitCost, long totalRevenue, long totalCost, long totalProfit) {
         this.region = region;
         this.country = country;
         this.itemType = itemType;
@@ -50,11 +71,11 @@ public class Sale {
         this.totalCost = totalCost;
         this.totalProfit = totalProfit;
 
-        if (orderDate != null && shipDate != null) {
-            this.orderProcessingTime = Math.toIntExact(ChronoUnit.DAYS.between(orderDate, shipDate));
+        if (orderDate != SalesDates.NONE && shipDate != SalesDates.NONE) {
+            this.orderProcessingTime = shipDate - orderDate;
         }
 
-        this.grossMargin = totalProfit.divide(totalRevenue, 2, RoundingMode.HALF_UP);
+        this.grossMargin = Money.ratio(totalProfit, totalRevenue);
     }
 
     public String getRegion() {
@@ -98,10 +119,18 @@ public class Sale {
     }
 
     public LocalDate getOrderDate() {
-        return orderDate;
+        return SalesDates.toLocalDate(orderDate);
     }
 
     public void setOrderDate(LocalDate orderDate) {
+        this.orderDate = SalesDates.fromLocalDate(orderDate);
+    }
+
+    public int getOrderDateEpochDay() {
+        return orderDate;
+    }
+
+    public void setOrderDateEpochDay(int orderDate) {
         this.orderDate = orderDate;
     }
 
@@ -114,10 +143,18 @@ public class Sale {
     }
 
     public LocalDate getShipDate() {
-        return shipDate;
+        return SalesDates.toLocalDate(shipDate);
     }
 
     public void setShipDate(LocalDate shipDate) {
+        this.shipDate = SalesDates.fromLocalDate(shipDate);
+    }
+
+    public int getShipDateEpochDay() {
+        return shipDate;
+    }
+
+    public void setShipDateEpochDay(int shipDate) {
         this.shipDate = shipDate;
     }
 
@@ -130,42 +167,82 @@ public class Sale {
     }
 
     public BigDecimal getUnitPrice() {
-        return unitPrice;
+        return Money.toBigDecimal(unitPrice);
     }
 
     public void setUnitPrice(BigDecimal unitPrice) {
+        this.unitPrice = Money.fromBigDecimal(unitPrice);
+    }
+
+    public long getUnitPriceAmount() {
+        return unitPrice;
+    }
+
+    public void setUnitPriceAmount(long unitPrice) {
         this.unitPrice = unitPrice;
     }
 
     public BigDecimal getUnitCost() {
-        return unitCost;
+        return Money.toBigDecimal(unitCost);
     }
 
     public void setUnitCost(BigDecimal unitCost) {
+        this.unitCost = Money.fromBigDecimal(unitCost);
+    }
+
+    public long getUnitCostAmount() {
+        return unitCost;
+    }
+
+    public void setUnitCostAmount(long unitCost) {
         this.unitCost = unitCost;
     }
 
     public BigDecimal getTotalRevenue() {
-        return totalRevenue;
+        return Money.toBigDecimal(totalRevenue);
     }
 
     public void setTotalRevenue(BigDecimal totalRevenue) {
+        this.totalRevenue = Money.fromBigDecimal(totalRevenue);
+    }
+
+    public long getTotalRevenueAmount() {
+        return totalRevenue;
+    }
+
+    public void setTotalRevenueAmount(long totalRevenue) {
         this.totalRevenue = totalRevenue;
     }
 
     public BigDecimal getTotalCost() {
-        return totalCost;
+        return Money.toBigDecimal(totalCost);
     }
 
     public void setTotalCost(BigDecimal totalCost) {
+        this.totalCost = Money.fromBigDecimal(totalCost);
+    }
+
+    public long getTotalCostAmount() {
+        return totalCost;
+    }
+
+    public void setTotalCostAmount(long totalCost) {
         this.totalCost = totalCost;
     }
 
     public BigDecimal getTotalProfit() {
-        return totalProfit;
+        return Money.toBigDecimal(totalProfit);
     }
 
     public void setTotalProfit(BigDecimal totalProfit) {
+        this.totalProfit = Money.fromBigDecimal(totalProfit);
+    }
+
+    public long getTotalProfitAmount() {
+        return totalProfit;
+    }
+
+    public void setTotalProfitAmount(long totalProfit) {
         this.totalProfit = totalProfit;
     }
 
@@ -183,35 +260,30 @@ public class Sale {
 
     @Override
     public String toString() {
-        return region + "," +
-                country + "," +
-                itemType + "," +
-                salesChannel + "," +
-                orderPriority + "," +
-                orderDate.format(FORMATTER) + "," +
-                orderId + "," +
-                shipDate.format(FORMATTER) + "," +
-                unitsSold + "," +
-                unitPrice + "," +
-                unitCost + "," +
-                totalRevenue + "," +
-                totalCost + "," +
-                totalProfit + "," +
-                orderProcessingTime + "," +
-                grossMargin;
-    }
-
-    private String formatPriority(String priority) {
-        if (priority != null) {
-            switch (priority) {
-                case "L":
-                    return "Low";
-                case "M":
-                    return "Medium";
-                case "H":
-                    return "High";
-                case "C":
-                    return "Critical";
+        StringBuilder sb = new StringBuilder(160);
+        sb.append(region).append(',')
+                .append(country).append(',')
+                .append(itemType).append(',')
+                .append(salesChannel).append(',')
+                .append(orderPriority).append(',')
+                .append(SalesDates.toString(orderDate)).append(',')
+                .append(orderId).append(',')
+                .append(SalesDates.toString(shipDate)).append(',')
+                .append(unitsSold).append(',');
+        Money.append(sb, unitPrice).append(',');
+        Money.append(sb, unitCost).append(',');
+        Money.append(sb, totalRevenue).append(',');
+        Money.append(sb, totalCost).append(',');
+        Money.append(sb, totalProfit).append(',');
+        sb.append(orderProcessingTime).append(',');
+        return Money.append(sb, grossMargin).toString();
+    }
+
+    static String formatPriority(String priority) {
+        if (priority != null && priority.length() == 1) {
+            char c = priority.charAt(0);
+            if (c < PRIORITY_LABELS.length && PRIORITY_LABELS[c] != null) {
+                return PRIORITY_LABELS[c];
             }
         }
 
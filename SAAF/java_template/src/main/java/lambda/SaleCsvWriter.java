@@ -0,0 +1,309 @@
+package lambda;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes transformed sales as CSV bytes into a reusable buffer that is
+ * flushed to an OutputStream. Numbers are written digit by digit and dates
+ * from cached ASCII bytes, text columns from the UTF-8 bytes kept
+ * by the SalesDictionary, so no String is created per field.
+ *
+ * Text containing a comma, a quote or a line break is quoted as in RFC 4180.
+ * Everything else matches Sale.toString byte for byte.
+ */
+public class SaleCsvWriter implements Closeable, Flushable {
+
+    public static final String HEADER = "Region,Country,Item Type,Sales Channel,Order Priority,Order Date,Order ID,Ship Date,Units Sold,Unit Price,Unit Cost,Total Revenue,Total Cost,Total Profit,Order Processing Time,Gross Margin\n";
+
+    private static final byte[] HEADER_BYTES = HEADER.getBytes(StandardCharsets.US_ASCII);
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    // Longest number written in one piece, Long.MIN_VALUE included.
+    private static final int MAX_NUMBER_LENGTH = 24;
+    private static final int MIN_BUFFER_SIZE = 64;
+    private static final long[] POWERS_OF_TEN = new long[19];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final OutputStream out;
+    private final byte[] buf;
+    private int pos = 0;
+    private long flushed = 0;
+
+    public SaleCsvWriter(OutputStream out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    public SaleCsvWriter(OutputStream out, int bufferSize) {
+        if (bufferSize < MIN_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Buffer size must be at least " + MIN_BUFFER_SIZE + " bytes");
+        }
+        this.out = out;
+        this.buf = new byte[bufferSize];
+    }
+
+    public void writeHeader() throws IOException {
+        write(HEADER_BYTES);
+    }
+
+    /**
+     * Write every row of a transformed batch.
+     */
+    public void write(SalesBatch batch) throws IOException {
+        for (int row = 0; row < batch.size; row++) {
+            writeRow(batch, row);
+        }
+    }
+
+    /**
+     * Write one row of a transformed batch, including the line break.
+     */
+    public void writeRow(SalesBatch batch, int row) throws IOException {
+        SalesDictionary dictionary = batch.dictionary;
+        write(dictionary.getCsvBytes(batch.region[row]));
+        write(',');
+        write(dictionary.getCsvBytes(batch.country[row]));
+        write(',');
+        write(dictionary.getCsvBytes(batch.itemType[row]));
+        write(',');
+        write(dictionary.getCsvBytes(batch.salesChannel[row]));
+        write(',');
+        write(dictionary.getCsvBytes(dictionary.getPriorityLabel(batch.orderPriority[row])));
+        writeNumbers(batch.orderDate[row], batch.orderId[row], batch.shipDate[row], batch.unitsSold[row],
+                batch.unitPrice[row], batch.unitCost[row], batch.totalRevenue[row], batch.totalCost[row],
+                batch.totalProfit[row], batch.orderProcessingTime[row], batch.grossMargin[row]);
+    }
+
+    /**
+     * Write one sale, including the line break. Text is encoded as it is
+     * written, prefer writeRow when the rows are in a SalesBatch.
+     */
+    public void write(Sale sale) throws IOException {
+        writeText(sale.region);
+        write(',');
+        writeText(sale.country);
+        write(',');
+        writeText(sale.itemType);
+        write(',');
+        writeText(sale.salesChannel);
+        write(',');
+        writeText(sale.orderPriority);
+        writeNumbers(sale.orderDate, sale.orderId, sale.shipDate, sale.unitsSold,
+                sale.unitPrice, sale.unitCost, sale.totalRevenue, sale.totalCost,
+                sale.totalProfit, sale.orderProcessingTime, sale.grossMargin);
+    }
+
+    /**
+     * @return The number of bytes written so far, including buffered bytes.
+     */
+    public long getBytesWritten() {
+        return flushed + pos;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * Flush the buffer and close the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        flushBuffer();
+        out.close();
+    }
+
+    /**
+     * @return value as a CSV field: the same array if it needs no quoting,
+     * otherwise a copy wrapped in quotes with inner quotes doubled.
+     */
+    static byte[] quote(byte[] value) {
+        int quotes = 0;
+        boolean special = false;
+        for (byte b : value) {
+            if (b == '"') {
+                quotes++;
+            } else if (b == ',' || b == '\n' || b == '\r') {
+                special = true;
+            }
+        }
+        if (quotes == 0 && !special) {
+            return value;
+        }
+        byte[] quoted = new byte[value.length + quotes + 2];
+        int p = 0;
+        quoted[p++] = '"';
+        for (byte b : value) {
+            if (b == '"') {
+                quoted[p++] = '"';
+            }
+            quoted[p++] = b;
+        }
+        quoted[p] = '"';
+        return quoted;
+    }
+
+    /**
+     * Write the columns from the order date to the gross margin, with a
+     * leading comma and the line break.
+     */
+    private void writeNumbers(int orderDate, int orderId, int shipDate, int unitsSold,
+                              long unitPrice, long unitCost, long totalRevenue, long totalCost,
+                              long totalProfit, int orderProcessingTime, long grossMargin) throws IOException {
+        write(',');
+        writeDate(orderDate);
+        write(',');
+        writeLong(orderId);
+        write(',');
+        writeDate(shipDate);
+        write(',');
+        writeLong(unitsSold);
+        write(',');
+        writeAmount(unitPrice);
+        write(',');
+        writeAmount(unitCost);
+        write(',');
+        writeAmount(totalRevenue);
+        write(',');
+        writeAmount(totalCost);
+        write(',');
+        writeAmount(totalProfit);
+        write(',');
+        writeLong(orderProcessingTime);
+        write(',');
+        writeAmount(grossMargin);
+        write('\n');
+    }
+
+    private void writeText(String value) throws IOException {
+        // Matches StringBuilder.append(String) for a missing value.
+        String text = String.valueOf(value);
+        int length = text.length();
+        if (length <= buf.length - pos) {
+            int start = pos;
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+                if (c >= 0x80 || c == ',' || c == '"' || c == '\n' || c == '\r') {
+                    // Undo the ASCII fast path.
+                    pos = start;
+                    write(quote(text.getBytes(StandardCharsets.UTF_8)));
+                    return;
+                }
+                buf[pos++] = (byte) c;
+            }
+            return;
+        }
+        write(quote(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private void writeDate(int epochDay) throws IOException {
+        if (SalesDates.MAX_ASCII_LENGTH > buf.length - pos) {
+            flushBuffer();
+        }
+        int end = SalesDates.putAscii(epochDay, buf, pos);
+        if (end < 0) {
+            write(SalesDates.toAscii(epochDay));
+        } else {
+            pos = end;
+        }
+    }
+
+    /**
+     * Write an amount the way Money.toString formats it.
+     */
+    private void writeAmount(long amount) throws IOException {
+        if (MAX_NUMBER_LENGTH > buf.length - pos) {
+            flushBuffer();
+        }
+        long value = Money.value(amount);
+        if (value < 0) {
+            buf[pos++] = '-';
+            value = -value;
+        }
+        putDigits(value / Money.UNIT);
+        int scale = Money.scale(amount);
+        if (scale > 0) {
+            buf[pos++] = '.';
+            int fraction = (int) (value % Money.UNIT);
+            for (int i = 0; i < scale; i++) {
+                buf[pos++] = (byte) ('0' + fraction / 1000);
+                fraction = fraction % 1000 * 10;
+            }
+        }
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            write(Long.toString(value).getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        if (MAX_NUMBER_LENGTH > buf.length - pos) {
+            flushBuffer();
+        }
+        if (value < 0) {
+            buf[pos++] = '-';
+            value = -value;
+        }
+        putDigits(value);
+    }
+
+    /**
+     * Put the decimal digits of a non-negative value, the caller makes room.
+     */
+    private void putDigits(long value) {
+        int digits = 1;
+        while (digits < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[digits]) {
+            digits++;
+        }
+        int p = pos + digits;
+        pos = p;
+        // Int arithmetic is cheaper once the value fits.
+        while (value > Integer.MAX_VALUE) {
+            buf[--p] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        int v = (int) value;
+        do {
+            buf[--p] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+    }
+
+    private void write(int b) throws IOException {
+        if (pos == buf.length) {
+            flushBuffer();
+        }
+        buf[pos++] = (byte) b;
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        if (bytes.length > buf.length - pos) {
+            flushBuffer();
+            if (bytes.length > buf.length) {
+                out.write(bytes);
+                flushed += bytes.length;
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buf, pos, bytes.length);
+        pos += bytes.length;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (pos > 0) {
+            out.write(buf, 0, pos);
+            flushed += pos;
+            pos = 0;
+        }
+    }
+}
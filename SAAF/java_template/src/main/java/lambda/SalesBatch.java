@@ -0,0 +1,152 @@
+package lambda;
+
+/**
+ * A fixed-size batch of sales rows stored column by column.
+ *
+ * Text columns hold SalesDictionary codes, dates are epoch days and amounts
+ * are Money amounts (see SalesDates and Money), so a batch of any size is a
+ * handful of primitive arrays that are reused from one batch to the next.
+ */
+public class SalesBatch {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    final SalesDictionary dictionary;
+    final int capacity;
+    int size = 0;
+
+    // Dictionary codes
+    final int[] region;
+    final int[] country;
+    final int[] itemType;
+    final int[] salesChannel;
+    final int[] orderPriority;
+
+    final int[] orderDate;
+    final int[] orderId;
+    final int[] shipDate;
+    final int[] unitsSold;
+    final long[] unitPrice;
+    final long[] unitCost;
+    final long[] totalRevenue;
+    final long[] totalCost;
+    final long[] totalProfit;
+
+    // Computed columns
+    final int[] orderProcessingTime;
+    final long[] grossMargin;
+
+    public SalesBatch(SalesDictionary dictionary) {
+        this(dictionary, DEFAULT_CAPACITY);
+    }
+
+    public SalesBatch(SalesDictionary dictionary, int capacity) {
+        this.dictionary = dictionary;
+        this.capacity = capacity;
+        region = new int[capacity];
+        country = new int[capacity];
+        itemType = new int[capacity];
+        salesChannel = new int[capacity];
+        orderPriority = new int[capacity];
+        orderDate = new int[capacity];
+        orderId = new int[capacity];
+        shipDate = new int[capacity];
+        unitsSold = new int[capacity];
+        unitPrice = new long[capacity];
+        unitCost = new long[capacity];
+        totalRevenue = new long[capacity];
+        totalCost = new long[capacity];
+        totalProfit = new long[capacity];
+        orderProcessingTime = new int[capacity];
+        grossMargin = new long[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public SalesDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Drop rows whose order ID is already in orderIds, keeping the first
+     * occurrence, and add the remaining IDs to it.
+     *
+     * @return The number of rows removed.
+     */
+    public int retainNew(OrderIdSet orderIds) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (orderIds.add(orderId[i])) {
+                if (kept != i) {
+                    copyRow(i, kept);
+                }
+                kept++;
+            }
+        }
+        int removed = size - kept;
+        size = kept;
+        return removed;
+    }
+
+    /**
+     * Fill in the computed columns, order processing time and gross margin.
+     */
+    public void transform() {
+        for (int i = 0; i < size; i++) {
+            orderProcessingTime[i] = shipDate[i] - orderDate[i];
+        }
+        for (int i = 0; i < size; i++) {
+            grossMargin[i] = Money.ratio(totalProfit[i], totalRevenue[i]);
+        }
+    }
+
+    /**
+     * @return A row as a Sale object.
+     */
+    public Sale getSale(int row) {
+        return new Sale(
+                dictionary.getString(region[row]),
+                dictionary.getString(country[row]),
+                dictionary.getString(itemType[row]),
+                dictionary.getString(salesChannel[row]),
+                dictionary.getString(orderPriority[row]),
+                orderDate[row],
+                orderId[row],
+                shipDate[row],
+                unitsSold[row],
+                unitPrice[row],
+                unitCost[row],
+                totalRevenue[row],
+                totalCost[row],
+                totalProfit[row]);
+    }
+
+    private void copyRow(int from, int to) {
+        region[to] = region[from];
+        country[to] = country[from];
+        itemType[to] = itemType[from];
+        salesChannel[to] = salesChannel[from];
+        orderPriority[to] = orderPriority[from];
+        orderDate[to] = orderDate[from];
+        orderId[to] = orderId[from];
+        shipDate[to] = shipDate[from];
+        unitsSold[to] = unitsSold[from];
+        unitPrice[to] = unitPrice[from];
+        unitCost[to] = unitCost[from];
+        totalRevenue[to] = totalRevenue[from];
+        totalCost[to] = totalCost[from];
+        totalProfit[to] = totalProfit[from];
+        orderProcessingTime[to] = orderProcessingTime[from];
+        grossMargin[to] = grossMargin[from];
+    }
+}
@@ -0,0 +1,81 @@
+package lambda;
+
+/**
+ * Columns of a transformed sale, in output order, as stored in the columnar
+ * format written by SalesColumnarWriter.
+ */
+public enum SalesColumn {
+    REGION("Region", Type.TEXT),
+    COUNTRY("Country", Type.TEXT),
+    ITEM_TYPE("Item Type", Type.TEXT),
+    SALES_CHANNEL("Sales Channel", Type.TEXT),
+    ORDER_PRIORITY("Order Priority", Type.TEXT),
+    ORDER_DATE("Order Date", Type.DATE),
+    ORDER_ID("Order ID", Type.INT),
+    SHIP_DATE("Ship Date", Type.DATE),
+    UNITS_SOLD("Units Sold", Type.INT),
+    UNIT_PRICE("Unit Price", Type.MONEY),
+    UNIT_COST("Unit Cost", Type.MONEY),
+    TOTAL_REVENUE("Total Revenue", Type.MONEY),
+    TOTAL_COST("Total Cost", Type.MONEY),
+    TOTAL_PROFIT("Total Profit", Type.MONEY),
+    ORDER_PROCESSING_TIME("Order Processing Time", Type.INT),
+    GROSS_MARGIN("Gross Margin", Type.MONEY);
+
+    /**
+     * How the values of a column are held, see SalesBatch.
+     */
+    public enum Type {
+        // Dictionary code
+        TEXT,
+        // Epoch day, see SalesDates
+        DATE,
+        INT,
+        // Fixed point with the decimals of the input, see Money
+        MONEY
+    }
+
+    private final String label;
+    private final Type type;
+
+    SalesColumn(String label, Type type) {
+        this.label = label;
+        this.type = type;
+    }
+
+    /**
+     * @return The column name used in the CSV header.
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return The value of this column in a row of a batch, widened to long.
+     */
+    long get(SalesBatch batch, int row) {
+        switch (this) {
+            case REGION: return batch.region[row];
+            case COUNTRY: return batch.country[row];
+            case ITEM_TYPE: return batch.itemType[row];
+            case SALES_CHANNEL: return batch.salesChannel[row];
+            case ORDER_PRIORITY: return batch.orderPriority[row];
+            case ORDER_DATE: return batch.orderDate[row];
+            case ORDER_ID: return batch.orderId[row];
+            case SHIP_DATE: return batch.shipDate[row];
+            case UNITS_SOLD: return batch.unitsSold[row];
+            case UNIT_PRICE: return batch.unitPrice[row];
+            case UNIT_COST: return batch.unitCost[row];
+            case TOTAL_REVENUE: return batch.totalRevenue[row];
+            case TOTAL_COST: return batch.totalCost[row];
+            case TOTAL_PROFIT: return batch.totalProfit[row];
+            case ORDER_PROCESSING_TIME: return batch.orderProcessingTime[row];
+            case GROSS_MARGIN: return batch.grossMargin[row];
+            default: throw new AssertionError(this);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package lambda;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads files written by SalesColumnarWriter. Columns are decoded one row
+ * group at a time, and the per-group statistics can be used to skip groups
+ * without decoding them.
+ */
+public class SalesColumnarReader {
+
+    private static final SalesColumn[] COLUMNS = SalesColumn.values();
+
+    private final ByteBuffer buffer;
+    private final String[] dictionary;
+    private final long[] offsets;
+    private final int[] rows;
+    private final long[][] stats;
+    private final long rowCount;
+
+    public SalesColumnarReader(byte[] data) throws IOException {
+        this(ByteBuffer.wrap(data));
+    }
+
+    public SalesColumnarReader(ByteBuffer data) throws IOException {
+        this.buffer = data.slice();
+        int end = buffer.limit();
+        int magic = SalesColumnarWriter.MAGIC.length;
+        if (end < magic * 2 + 8 || !hasMagic(0) || !hasMagic(end - magic)) {
+            throw new IOException("Not a columnar sales file");
+        }
+        ByteBuffer in = buffer.duplicate();
+        in.position(magic);
+        int version = in.getInt();
+        if (version != SalesColumnarWriter.VERSION) {
+            throw new IOException("Unsupported version " + version);
+        }
+
+        int footerLength = buffer.getInt(end - magic - 4);
+        in.position(end - magic - 4 - footerLength);
+        dictionary = new String[in.getInt()];
+        for (int i = 0; i < dictionary.length; i++) {
+            byte[] value = new byte[in.getInt()];
+            in.get(value);
+            dictionary[i] = new String(value, StandardCharsets.UTF_8);
+        }
+        int columnCount = in.getInt();
+        if (columnCount != COLUMNS.length) {
+            throw new IOException("Expected " + COLUMNS.length + " columns, found " + columnCount);
+        }
+        for (SalesColumn column : COLUMNS) {
+            String label = readUTF(in);
+            int type = in.get();
+            if (!label.equals(column.getLabel()) || type != column.getType().ordinal()) {
+                throw new IOException("Unexpected column " + label);
+            }
+        }
+        int groups = in.getInt();
+        offsets = new long[groups];
+        rows = new int[groups];
+        stats = new long[groups][];
+        long total = 0;
+        for (int g = 0; g < groups; g++) {
+            offsets[g] = in.getLong();
+            rows[g] = in.getInt();
+            stats[g] = new long[COLUMNS.length * 2];
+            for (int i = 0; i < stats[g].length; i++) {
+                stats[g][i] = in.getLong();
+            }
+            total += rows[g];
+        }
+        rowCount = total;
+    }
+
+    /**
+     * Map a file into memory and read it.
+     */
+    public static SalesColumnarReader open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("File too large to map: " + path);
+            }
+            return new SalesColumnarReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public int getRowGroupCount() {
+        return rows.length;
+    }
+
+    public int getRowCount(int group) {
+        return rows[group];
+    }
+
+    /**
+     * @return The smallest value of a column in a group. For text columns the
+     * code of the first value in string order.
+     */
+    public long getMin(int group, SalesColumn column) {
+        return stats[group][column.ordinal() * 2];
+    }
+
+    /**
+     * @return The largest value of a column in a group. For text columns the
+     * code of the last value in string order.
+     */
+    public long getMax(int group, SalesColumn column) {
+        return stats[group][column.ordinal() * 2 + 1];
+    }
+
+    public int getDictionarySize() {
+        return dictionary.length;
+    }
+
+    /**
+     * @return The text for a code of a text column.
+     */
+    public String getString(long code) {
+        return dictionary[(int) code];
+    }
+
+    /**
+     * Decode one column of a row group. Text columns are returned as
+     * dictionary codes, dates as epoch days and amounts as Money amounts.
+     */
+    public long[] readColumn(int group, SalesColumn column) {
+        ByteBuffer in = buffer.duplicate();
+        in.position((int) offsets[group]);
+        for (int c = 0; c < column.ordinal(); c++) {
+            int length = in.getInt();
+            in.position(in.position() + length);
+        }
+        int length = in.getInt();
+        in.limit(in.position() + length);
+
+        long[] values = new long[rows[group]];
+        boolean text = column.getType() == SalesColumn.Type.TEXT;
+        long previous = 0;
+        for (int row = 0; row < values.length; row++) {
+            long encoded = readVarLong(in);
+            if (text) {
+                values[row] = encoded;
+            } else {
+                previous += (encoded >>> 1) ^ -(encoded & 1);
+                values[row] = previous;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return A value formatted as in the CSV output, without quoting.
+     */
+    public String format(SalesColumn column, long value) {
+        switch (column.getType()) {
+            case TEXT: return getString(value);
+            case DATE: return SalesDates.toString((int) value);
+            case MONEY: return Money.toString(value);
+            default: return Long.toString(value);
+        }
+    }
+
+    private boolean hasMagic(int offset) {
+        byte[] magic = new byte[SalesColumnarWriter.MAGIC.length];
+        ByteBuffer in = buffer.duplicate();
+        in.position(offset);
+        in.get(magic);
+        return Arrays.equals(magic, SalesColumnarWriter.MAGIC);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /**
+     * Counterpart of DataOutputStream.writeUTF for the ASCII column names.
+     */
+    private static String readUTF(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xffff];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
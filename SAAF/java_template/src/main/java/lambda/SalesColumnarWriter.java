@@ -0,0 +1,286 @@
+package lambda;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Writes transformed sales in a compact columnar binary format, so they can
+ * be loaded without parsing text again. Read it with SalesColumnarReader.
+ *
+ * Rows are grouped in row groups of up to ROW_GROUP_SIZE rows. Within a
+ * group each column is stored on its own as variable-length integers: text
+ * columns as codes into a dictionary of the file, the other columns as the
+ * zigzag-encoded difference from the previous value. The footer holds the
+ * dictionary and, for each group, its offset and the minimum and maximum of
+ * every column (for text columns the codes of the first and last value in
+ * string order).
+ *
+ * <pre>
+ * file     = MAGIC version:int group* footer footerLength:int MAGIC
+ * group    = (length:int bytes)            for each column
+ * footer   = dictionarySize:int (length:int utf8)*
+ *            columnCount:int (name:UTF type:byte)*
+ *            groupCount:int (offset:long rows:int (min:long max:long)*)*
+ * </pre>
+ *
+ * Numbers are big-endian as written by DataOutputStream.
+ */
+public class SalesColumnarWriter implements Closeable {
+
+    public static final String EXTENSION = ".scol";
+    public static final String CONTENT_TYPE = "application/octet-stream";
+    public static final int ROW_GROUP_SIZE = 64 * 1024;
+
+    static final byte[] MAGIC = {'S', 'A', 'L', 'E', 'S', 'C', 'O', 'L'};
+    // 2: amounts keep their number of decimals, see Money.
+    static final int VERSION = 2;
+
+    private static final SalesColumn[] COLUMNS = SalesColumn.values();
+
+    private final CountingOutputStream counter;
+    private final DataOutputStream out;
+    private final ColumnBuffer[] columns = new ColumnBuffer[COLUMNS.length];
+    private final long[] previous = new long[COLUMNS.length];
+    private final long[] min = new long[COLUMNS.length];
+    private final long[] max = new long[COLUMNS.length];
+    private final BitSet[] textCodes = new BitSet[COLUMNS.length];
+
+    // Codes of the source dictionary mapped to codes of the file, 0 if unmapped.
+    private int[] fileCodes = new int[256];
+    private final List<byte[]> fileDictionary = new ArrayList<>();
+    private SalesDictionary dictionary;
+
+    private final List<long[]> groupStats = new ArrayList<>();
+    private final List<Long> groupOffsets = new ArrayList<>();
+    private final List<Integer> groupRows = new ArrayList<>();
+    private int rows = 0;
+    private boolean finished = false;
+
+    public SalesColumnarWriter(OutputStream out) throws IOException {
+        this.counter = new CountingOutputStream(out);
+        this.out = new DataOutputStream(counter);
+        for (int c = 0; c < COLUMNS.length; c++) {
+            columns[c] = new ColumnBuffer();
+            if (COLUMNS[c].getType() == SalesColumn.Type.TEXT) {
+                textCodes[c] = new BitSet();
+            }
+        }
+        this.out.write(MAGIC);
+        this.out.writeInt(VERSION);
+        startGroup();
+    }
+
+    /**
+     * Append every row of a transformed batch. All batches must use the same
+     * dictionary.
+     */
+    public void write(SalesBatch batch) throws IOException {
+        if (dictionary == null) {
+            dictionary = batch.dictionary;
+        } else if (dictionary != batch.dictionary) {
+            throw new IllegalArgumentException("Batches must share one dictionary");
+        }
+        int row = 0;
+        while (row < batch.size) {
+            int n = Math.min(batch.size - row, ROW_GROUP_SIZE - rows);
+            for (int c = 0; c < COLUMNS.length; c++) {
+                if (COLUMNS[c].getType() == SalesColumn.Type.TEXT) {
+                    appendText(c, batch, row, n);
+                } else {
+                    appendNumbers(c, batch, row, n);
+                }
+            }
+            rows += n;
+            row += n;
+            if (rows == ROW_GROUP_SIZE) {
+                writeGroup();
+            }
+        }
+    }
+
+    /**
+     * Write the last row group and the footer, without closing the stream.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (rows > 0) {
+            writeGroup();
+        }
+        long footerStart = counter.count;
+        out.writeInt(fileDictionary.size());
+        for (byte[] value : fileDictionary) {
+            out.writeInt(value.length);
+            out.write(value);
+        }
+        out.writeInt(COLUMNS.length);
+        for (SalesColumn column : COLUMNS) {
+            out.writeUTF(column.getLabel());
+            out.writeByte(column.getType().ordinal());
+        }
+        out.writeInt(groupStats.size());
+        for (int g = 0; g < groupStats.size(); g++) {
+            out.writeLong(groupOffsets.get(g));
+            out.writeInt(groupRows.get(g));
+            for (long stat : groupStats.get(g)) {
+                out.writeLong(stat);
+            }
+        }
+        out.writeInt((int) (counter.count - footerStart));
+        out.write(MAGIC);
+        out.flush();
+    }
+
+    /**
+     * Finish the file and close the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        finish();
+        out.close();
+    }
+
+    /**
+     * @return The number of bytes written so far.
+     */
+    public long getBytesWritten() {
+        return counter.count;
+    }
+
+    private void appendText(int c, SalesBatch batch, int from, int n) {
+        SalesColumn column = COLUMNS[c];
+        ColumnBuffer buffer = columns[c];
+        BitSet used = textCodes[c];
+        for (int row = from; row < from + n; row++) {
+            int code = (int) column.get(batch, row);
+            if (column == SalesColumn.ORDER_PRIORITY) {
+                code = dictionary.getPriorityLabel(code);
+            }
+            int fileCode = fileCode(code);
+            used.set(fileCode);
+            buffer.writeVarLong(fileCode);
+        }
+    }
+
+    private void appendNumbers(int c, SalesBatch batch, int from, int n) {
+        SalesColumn column = COLUMNS[c];
+        ColumnBuffer buffer = columns[c];
+        long prev = previous[c];
+        long lo = min[c];
+        long hi = max[c];
+        for (int row = from; row < from + n; row++) {
+            long value = column.get(batch, row);
+            long delta = value - prev;
+            buffer.writeVarLong((delta << 1) ^ (delta >> 63));
+            prev = value;
+            lo = Math.min(lo, value);
+            hi = Math.max(hi, value);
+        }
+        previous[c] = prev;
+        min[c] = lo;
+        max[c] = hi;
+    }
+
+    private int fileCode(int code) {
+        if (code >= fileCodes.length) {
+            fileCodes = Arrays.copyOf(fileCodes, Math.max(code + 1, fileCodes.length * 2));
+        }
+        int fileCode = fileCodes[code] - 1;
+        if (fileCode < 0) {
+            fileCode = fileDictionary.size();
+            fileDictionary.add(dictionary.getBytes(code));
+            fileCodes[code] = fileCode + 1;
+        }
+        return fileCode;
+    }
+
+    private void writeGroup() throws IOException {
+        groupOffsets.add(counter.count);
+        groupRows.add(rows);
+        long[] stats = new long[COLUMNS.length * 2];
+        for (int c = 0; c < COLUMNS.length; c++) {
+            if (COLUMNS[c].getType() == SalesColumn.Type.TEXT) {
+                textStats(textCodes[c], stats, c);
+            } else {
+                stats[c * 2] = min[c];
+                stats[c * 2 + 1] = max[c];
+            }
+            out.writeInt(columns[c].size);
+            out.write(columns[c].data, 0, columns[c].size);
+        }
+        groupStats.add(stats);
+        startGroup();
+    }
+
+    /**
+     * Find the first and last value in string order among the codes used.
+     */
+    private void textStats(BitSet used, long[] stats, int c) {
+        int lo = -1;
+        int hi = -1;
+        for (int code = used.nextSetBit(0); code >= 0; code = used.nextSetBit(code + 1)) {
+            if (lo < 0 || compare(fileDictionary.get(code), fileDictionary.get(lo)) < 0) {
+                lo = code;
+            }
+            if (hi < 0 || compare(fileDictionary.get(code), fileDictionary.get(hi)) > 0) {
+                hi = code;
+            }
+        }
+        stats[c * 2] = lo;
+        stats[c * 2 + 1] = hi;
+    }
+
+    /**
+     * Unsigned byte order, which is code point order for UTF-8.
+     */
+    private static int compare(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    private void startGroup() {
+        rows = 0;
+        for (int c = 0; c < COLUMNS.length; c++) {
+            columns[c].size = 0;
+            previous[c] = 0;
+            min[c] = Long.MAX_VALUE;
+            max[c] = Long.MIN_VALUE;
+            if (textCodes[c] != null) {
+                textCodes[c].clear();
+            }
+        }
+    }
+
+    /**
+     * Growable byte array for the encoded values of one column.
+     */
+    private static final class ColumnBuffer {
+        byte[] data = new byte[64 * 1024];
+        int size = 0;
+
+        void writeVarLong(long value) {
+            if (data.length - size < 10) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            while ((value & ~0x7FL) != 0) {
+                data[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[size++] = (byte) value;
+        }
+    }
+}
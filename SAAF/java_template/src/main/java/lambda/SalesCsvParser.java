@@ -0,0 +1,472 @@
+package lambda;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Byte level tokenizer for the sales CSV format.
+ *
+ * Records are read into a single reused buffer and split into field offsets
+ * without creating a String per line or per field. Numbers and dates are
+ * parsed directly from the bytes, Strings are only created for text columns.
+ * Quoted fields (RFC 4180) may contain commas, line breaks and doubled quotes.
+ */
+public class SalesCsvParser implements Closeable {
+
+    public static final int FIELD_COUNT = 14;
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    // Whole units that still fit in a Money amount.
+    private static final int MAX_UNIT_DIGITS = 14;
+    private static final int MAX_DATE_LENGTH = 10;
+    private static final int DATE_CACHE_SIZE = 1024;
+
+    private final InputStream in;
+    // Interns the text columns of Sale objects created by getSale.
+    private final SalesDictionary dictionary;
+    private byte[] buf;
+    private int limit = 0;
+    private int pos = 0;
+    private boolean eof = false;
+    // File offset of buf[0], and of the first record that is not read.
+    private long base = 0;
+    private long end = Long.MAX_VALUE;
+
+    // Field offsets of the current record.
+    private int[] starts = new int[FIELD_COUNT];
+    private int[] ends = new int[FIELD_COUNT];
+    private int fieldCount = 0;
+    private long recordNumber = 0;
+
+    // Memoized dates, keyed by the packed field text.
+    private final long[] dateKeys = new long[DATE_CACHE_SIZE];
+    private final int[] dateValues = new int[DATE_CACHE_SIZE];
+
+    public SalesCsvParser(InputStream in) {
+        this(in, new SalesDictionary());
+    }
+
+    public SalesCsvParser(InputStream in, SalesDictionary dictionary) {
+        this(in, dictionary, DEFAULT_BUFFER_SIZE);
+    }
+
+    public SalesCsvParser(InputStream in, SalesDictionary dictionary, int bufferSize) {
+        this.in = in;
+        this.dictionary = dictionary;
+        this.buf = new byte[bufferSize];
+    }
+
+    /**
+     * Advance to the next sales record. Header rows and blank lines are skipped.
+     *
+     * @return false once the input is exhausted.
+     */
+    public boolean next() throws IOException {
+        while (readRecord()) {
+            if (fieldCount == 1 && ends[0] == starts[0]) {
+                continue;
+            }
+            if (fieldEquals(0, "Region") && fieldCount > 1 && fieldEquals(1, "Country")) {
+                continue;
+            }
+            if (fieldCount < FIELD_COUNT) {
+                throw new IOException("Malformed sales record " + recordNumber + ": expected "
+                        + FIELD_COUNT + " fields, found " + fieldCount);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return A new Sale built from the current record. Its text values are
+     * shared with every other Sale from this parser.
+     */
+    public Sale getSale() {
+        return new Sale(
+                getText(0),
+                getText(1),
+                getText(2),
+                getText(3),
+                getText(4),
+                getEpochDay(5),
+                getInt(6),
+                getEpochDay(7),
+                getInt(8),
+                getAmount(9),
+                getAmount(10),
+                getAmount(11),
+                getAmount(12),
+                getAmount(13));
+    }
+
+    /**
+     * Read records into a batch until it is full or the input ends.
+     *
+     * @return The number of rows in the batch, 0 once the input is exhausted.
+     */
+    public int fill(SalesBatch batch) throws IOException {
+        batch.clear();
+        SalesDictionary dictionary = batch.dictionary;
+        while (!batch.isFull() && next()) {
+            int row = batch.size++;
+            batch.region[row] = encode(dictionary, 0);
+            batch.country[row] = encode(dictionary, 1);
+            batch.itemType[row] = encode(dictionary, 2);
+            batch.salesChannel[row] = encode(dictionary, 3);
+            batch.orderPriority[row] = encode(dictionary, 4);
+            batch.orderDate[row] = getEpochDay(5);
+            batch.orderId[row] = getInt(6);
+            batch.shipDate[row] = getEpochDay(7);
+            batch.unitsSold[row] = getInt(8);
+            batch.unitPrice[row] = getAmount(9);
+            batch.unitCost[row] = getAmount(10);
+            batch.totalRevenue[row] = getAmount(11);
+            batch.totalCost[row] = getAmount(12);
+            batch.totalProfit[row] = getAmount(13);
+        }
+        return batch.size;
+    }
+
+    /**
+     * @return The dictionary code of a text field.
+     */
+    public int encode(SalesDictionary dictionary, int field) {
+        return dictionary.encode(buf, starts[field], ends[field] - starts[field]);
+    }
+
+    /**
+     * Restrict parsing to part of a file, for reading it in chunks.
+     *
+     * @param start File offset of the first byte of the input stream.
+     * @param end Records starting at or after this offset are not read.
+     */
+    public void setRange(long start, long end) {
+        this.base = start - pos;
+        this.end = end;
+    }
+
+    /**
+     * Skip the rest of the current line. Used when a chunk starts in the
+     * middle of a record that belongs to the previous chunk.
+     */
+    public void skipLine() throws IOException {
+        while (true) {
+            if (pos == limit && !fill()) {
+                return;
+            }
+            if (buf[pos++] == '\n') {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return The file offset of the next unread byte.
+     */
+    public long getOffset() {
+        return base + pos;
+    }
+
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @return The 1-based number of the current record, including the header.
+     */
+    public long getRecordNumber() {
+        return recordNumber;
+    }
+
+    public String getString(int field) {
+        return new String(buf, starts[field], ends[field] - starts[field], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The text of a field, interned in the parser's dictionary.
+     */
+    public String getText(int field) {
+        return dictionary.getString(encode(dictionary, field));
+    }
+
+    public boolean fieldEquals(int field, String ascii) {
+        int start = starts[field];
+        int len = ends[field] - start;
+        if (len != ascii.length()) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (buf[start + i] != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getInt(int field) {
+        int p = starts[field];
+        int end = ends[field];
+        boolean negative = p < end && buf[p] == '-';
+        if (negative || (p < end && buf[p] == '+')) {
+            p++;
+        }
+        if (p == end) {
+            throw invalid(field, "integer");
+        }
+        long value = 0;
+        for (; p < end; p++) {
+            int digit = buf[p] - '0';
+            if (digit < 0 || digit > 9) {
+                throw invalid(field, "integer");
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw invalid(field, "integer");
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw invalid(field, "integer");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Parse a plain decimal amount such as 255.28, -12 or 0.5 into a Money
+     * amount that keeps its number of decimals. Fractions longer than
+     * Money.MAX_SCALE are rounded HALF_UP.
+     */
+    public long getAmount(int field) {
+        int p = starts[field];
+        int end = ends[field];
+        boolean negative = p < end && buf[p] == '-';
+        if (negative || (p < end && buf[p] == '+')) {
+            p++;
+        }
+        long units = 0;
+        int digits = 0;
+        int fraction = -1;
+        int fractionDigits = 0;
+        boolean roundUp = false;
+        for (; p < end; p++) {
+            byte b = buf[p];
+            if (b == '.' && fraction < 0) {
+                fraction = 0;
+                continue;
+            }
+            int digit = b - '0';
+            if (digit < 0 || digit > 9) {
+                throw invalid(field, "decimal");
+            }
+            if (fraction < 0) {
+                if (++digits > MAX_UNIT_DIGITS) {
+                    throw invalid(field, "decimal");
+                }
+                units = units * 10 + digit;
+            } else if (++fractionDigits <= Money.MAX_SCALE) {
+                fraction = fraction * 10 + digit;
+            } else if (fractionDigits == Money.MAX_SCALE + 1) {
+                roundUp = digit >= 5;
+            }
+        }
+        if (digits == 0 && fractionDigits == 0) {
+            throw invalid(field, "decimal");
+        }
+        int scale = Math.min(fractionDigits, Money.MAX_SCALE);
+        for (int i = scale; i < Money.MAX_SCALE; i++) {
+            fraction *= 10;
+        }
+        long value = units * Money.UNIT + Math.max(fraction, 0) + (roundUp ? 1 : 0);
+        return Money.of(negative ? -value : value, scale);
+    }
+
+    /**
+     * Parse a M/d/yyyy date into an epoch day. Export files repeat the same
+     * few thousand dates, so results are memoized by the raw field text.
+     */
+    public int getEpochDay(int field) {
+        int start = starts[field];
+        int end = ends[field];
+        if (end - start > MAX_DATE_LENGTH) {
+            return parseEpochDay(field);
+        }
+        // Pack the text in base 11 ('/' and the ten digits), the leading 1
+        // keeps texts of different lengths apart.
+        long key = 1;
+        for (int p = start; p < end; p++) {
+            int code = buf[p] - '/';
+            if (code < 0 || code > 10) {
+                return parseEpochDay(field);
+            }
+            key = key * 11 + code;
+        }
+        int slot = (int) (key ^ (key >>> 17) ^ (key >>> 31)) & (DATE_CACHE_SIZE - 1);
+        if (dateKeys[slot] == key) {
+            return dateValues[slot];
+        }
+        int epochDay = parseEpochDay(field);
+        dateKeys[slot] = key;
+        dateValues[slot] = epochDay;
+        return epochDay;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Read the next record into the buffer and split it into fields.
+     */
+    private boolean readRecord() throws IOException {
+        if (base + pos >= end || (pos >= limit && !fill())) {
+            return false;
+        }
+
+        // Find the end of the record, refilling the buffer as needed.
+        int scan = pos;
+        boolean quoted = false;
+        int recordEnd;
+        while (true) {
+            if (scan == limit) {
+                int offset = pos;
+                if (!fill()) {
+                    recordEnd = limit;
+                    break;
+                }
+                scan -= offset - pos;
+            }
+            byte b = buf[scan];
+            if (b == '"') {
+                quoted = !quoted;
+            } else if (b == '\n' && !quoted) {
+                recordEnd = scan;
+                break;
+            }
+            scan++;
+        }
+
+        int start = pos;
+        pos = recordEnd < limit ? recordEnd + 1 : limit;
+        int end = recordEnd;
+        if (end > start && buf[end - 1] == '\r') {
+            end--;
+        }
+        recordNumber++;
+        split(start, end);
+        return true;
+    }
+
+    /**
+     * Split buf[start, end) on commas outside quotes. Quoted fields are
+     * unescaped in place.
+     */
+    private void split(int start, int end) {
+        fieldCount = 0;
+        int p = start;
+        while (true) {
+            if (fieldCount == starts.length) {
+                starts = Arrays.copyOf(starts, fieldCount * 2);
+                ends = Arrays.copyOf(ends, fieldCount * 2);
+            }
+            if (p < end && buf[p] == '"') {
+                int w = ++p;
+                starts[fieldCount] = w;
+                while (p < end) {
+                    byte b = buf[p++];
+                    if (b == '"') {
+                        if (p < end && buf[p] == '"') {
+                            p++;
+                        } else {
+                            break;
+                        }
+                    }
+                    buf[w++] = b;
+                }
+                ends[fieldCount++] = w;
+                // Skip anything between the closing quote and the delimiter.
+                while (p < end && buf[p] != ',') {
+                    p++;
+                }
+            } else {
+                starts[fieldCount] = p;
+                while (p < end && buf[p] != ',') {
+                    p++;
+                }
+                ends[fieldCount++] = p;
+            }
+            if (p >= end) {
+                return;
+            }
+            p++;
+        }
+    }
+
+    /**
+     * Move the unread bytes to the front of the buffer, growing it if a single
+     * record does not fit, and read more input.
+     *
+     * @return false if no more bytes could be read.
+     */
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        int remaining = limit - pos;
+        base += pos;
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, remaining);
+        } else if (remaining == buf.length) {
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+        pos = 0;
+        limit = remaining;
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n < 0) {
+            eof = true;
+            return false;
+        }
+        limit += n;
+        return true;
+    }
+
+    private int parseEpochDay(int field) {
+        int month = 0;
+        int day = 0;
+        int year = 0;
+        int part = 0;
+        int digits = 0;
+        for (int p = starts[field]; p < ends[field]; p++) {
+            byte b = buf[p];
+            if (b == '/' && part < 2 && digits > 0) {
+                part++;
+                digits = 0;
+                continue;
+            }
+            int digit = b - '0';
+            if (digit < 0 || digit > 9 || ++digits > 4) {
+                throw invalid(field, "date");
+            }
+            if (part == 0) {
+                month = month * 10 + digit;
+            } else if (part == 1) {
+                day = day * 10 + digit;
+            } else {
+                year = year * 10 + digit;
+            }
+        }
+        if (part != 2 || digits != 4 || month < 1 || month > 12 || day < 1 || day > 31) {
+            throw invalid(field, "date");
+        }
+        return SalesDates.epochDay(year, month, day);
+    }
+
+    private NumberFormatException invalid(int field, String type) {
+        return new NumberFormatException("Invalid " + type + " '" + getString(field) + "' in field "
+                + (field + 1) + " of record " + recordNumber);
+    }
+}
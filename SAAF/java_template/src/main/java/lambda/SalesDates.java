@@ -0,0 +1,141 @@
+package lambda;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Dates of the sales exports held as primitive epoch days (days since
+ * 1970-01-01) and formatted as M/d/yyyy without going through java.time.
+ */
+public final class SalesDates {
+
+    /**
+     * Marks a missing date.
+     */
+    public static final int NONE = Integer.MIN_VALUE;
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("M/d/yyyy");
+
+    /**
+     * Longest date written by putAscii, 12/31/yyyy.
+     */
+    public static final int MAX_ASCII_LENGTH = 10;
+
+    // Dates from 1970-01-01 up to 2099-12-31 are formatted from the tables.
+    private static final int TABLE_START = 0;
+    private static final int TABLE_END = 47481;
+    private static final int FIRST_YEAR = 1970;
+    private static final int LAST_YEAR = 2099;
+
+    // "M/d/" indexed by month * 32 + day, and "yyyy" by year. Filled in once
+    // here, since parallel transforms read them from several threads, and
+    // small enough not to slow down a cold start.
+    private static final byte[][] MONTH_DAY_ASCII = new byte[13 * 32][];
+    private static final byte[][] YEAR_ASCII = new byte[LAST_YEAR - FIRST_YEAR + 1][];
+
+    private static final int[] DAYS_IN_MONTH = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    static {
+        for (int month = 1; month <= 12; month++) {
+            for (int day = 1; day <= 31; day++) {
+                MONTH_DAY_ASCII[month * 32 + day] = (month + "/" + day + "/").getBytes(StandardCharsets.US_ASCII);
+            }
+        }
+        for (int i = 0; i < YEAR_ASCII.length; i++) {
+            YEAR_ASCII[i] = Integer.toString(FIRST_YEAR + i).getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private SalesDates() {}
+
+    /**
+     * Convert a calendar date to an epoch day. A day past the end of the month
+     * is clamped to the last day, as DateTimeFormatter does by default.
+     */
+    public static int epochDay(int year, int month, int day) {
+        day = Math.min(day, lengthOfMonth(year, month));
+        // Days from civil, counting years from March so leap days come last.
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    public static int lengthOfMonth(int year, int month) {
+        if (month == 2 && (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0)) {
+            return 29;
+        }
+        return DAYS_IN_MONTH[month - 1];
+    }
+
+    /**
+     * @return The date as M/d/yyyy.
+     */
+    public static String toString(int epochDay) {
+        if (epochDay < TABLE_START || epochDay > TABLE_END) {
+            return LocalDate.ofEpochDay(epochDay).format(FORMATTER);
+        }
+        byte[] ascii = new byte[MAX_ASCII_LENGTH];
+        return new String(ascii, 0, putAscii(epochDay, ascii, 0), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return The date as M/d/yyyy in ASCII bytes.
+     */
+    public static byte[] toAscii(int epochDay) {
+        return toString(epochDay).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Put the date as M/d/yyyy in ASCII bytes at dst[pos], which must have
+     * room for MAX_ASCII_LENGTH bytes.
+     *
+     * @return The position after the date, or -1 for a date before 1970 or
+     * after 2099, use toAscii for those.
+     */
+    public static int putAscii(int epochDay, byte[] dst, int pos) {
+        if (epochDay < TABLE_START || epochDay > TABLE_END) {
+            return -1;
+        }
+        int civil = civil(epochDay);
+        byte[] monthDay = MONTH_DAY_ASCII[civil & 0x1ff];
+        for (byte b : monthDay) {
+            dst[pos++] = b;
+        }
+        byte[] year = YEAR_ASCII[(civil >>> 9) - FIRST_YEAR];
+        dst[pos] = year[0];
+        dst[pos + 1] = year[1];
+        dst[pos + 2] = year[2];
+        dst[pos + 3] = year[3];
+        return pos + 4;
+    }
+
+    public static LocalDate toLocalDate(int epochDay) {
+        return epochDay == NONE ? null : LocalDate.ofEpochDay(epochDay);
+    }
+
+    public static int fromLocalDate(LocalDate date) {
+        return date == null ? NONE : Math.toIntExact(date.toEpochDay());
+    }
+
+    /**
+     * Civil from days, the inverse of epochDay.
+     *
+     * @return year << 9 | month << 5 | day
+     */
+    private static int civil(int epochDay) {
+        int z = epochDay + 719468;
+        int era = (z >= 0 ? z : z - 146096) / 146097;
+        int dayOfEra = z - era * 146097;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return year << 9 | month << 5 | day;
+    }
+}
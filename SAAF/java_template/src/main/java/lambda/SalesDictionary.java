@@ -0,0 +1,201 @@
+package lambda;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Dictionary of the low-cardinality text values in the sales data (regions,
+ * countries, item types, ...). Each distinct byte sequence gets a small int
+ * code, so a row only stores codes and each value is decoded once.
+ *
+ * Lookups of known values are lock-free. New values are added under a lock
+ * and published through a volatile snapshot, so a dictionary can be shared by
+ * several parser threads, or kept for the lifetime of the container with
+ * shared().
+ */
+public class SalesDictionary {
+
+    private static final int INITIAL_SLOTS = 1024;
+    // A shared dictionary past this size is replaced instead of growing further.
+    private static final int MAX_SHARED_SIZE = 1 << 16;
+
+    private static SalesDictionary shared;
+
+    /**
+     * Published state. Entries with a code below size are fully visible.
+     */
+    private static final class Snapshot {
+        final int[] slots;
+        final byte[][] values;
+        // Values as CSV fields, the same array as in values unless quoted.
+        final byte[][] csvValues;
+        final String[] strings;
+        final int size;
+
+        Snapshot(int[] slots, byte[][] values, byte[][] csvValues, String[] strings, int size) {
+            this.slots = slots;
+            this.values = values;
+            this.csvValues = csvValues;
+            this.strings = strings;
+            this.size = size;
+        }
+    }
+
+    private volatile Snapshot snapshot;
+    // Code of the formatted order priority for each code, -1 if not computed yet.
+    private volatile int[] priorityLabels = new int[0];
+
+    public SalesDictionary() {
+        snapshot = new Snapshot(new int[INITIAL_SLOTS], new byte[INITIAL_SLOTS / 2][], new byte[INITIAL_SLOTS / 2][], new String[INITIAL_SLOTS / 2], 0);
+    }
+
+    /**
+     * Dictionary kept for the lifetime of the container, so warm invocations
+     * start with every value already encoded.
+     */
+    public static synchronized SalesDictionary shared() {
+        if (shared == null || shared.size() > MAX_SHARED_SIZE) {
+            shared = new SalesDictionary();
+        }
+        return shared;
+    }
+
+    /**
+     * @return The code of buf[offset, offset + length), adding it if new.
+     */
+    public int encode(byte[] buf, int offset, int length) {
+        int hash = hash(buf, offset, length);
+        int code = find(snapshot, hash, buf, offset, length);
+        if (code >= 0) {
+            return code;
+        }
+        return add(hash, buf, offset, length);
+    }
+
+    public int encode(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return encode(bytes, 0, bytes.length);
+    }
+
+    public String getString(int code) {
+        return snapshot.strings[code];
+    }
+
+    /**
+     * @return The UTF-8 bytes of a value. The array is shared, do not modify it.
+     */
+    public byte[] getBytes(int code) {
+        return snapshot.values[code];
+    }
+
+    /**
+     * @return A value as a CSV field, quoted if it contains a delimiter, a
+     * quote or a line break. The array is shared, do not modify it.
+     */
+    public byte[] getCsvBytes(int code) {
+        return snapshot.csvValues[code];
+    }
+
+    public int size() {
+        return snapshot.size;
+    }
+
+    /**
+     * Map an order priority code (L, M, H, C) to the code of its label (Low,
+     * Medium, High, Critical), see Sale.formatPriority.
+     */
+    public int getPriorityLabel(int code) {
+        int[] labels = priorityLabels;
+        if (code < labels.length && labels[code] >= 0) {
+            return labels[code];
+        }
+        return addPriorityLabel(code);
+    }
+
+    private synchronized int addPriorityLabel(int code) {
+        // Copy on write, readers only ever see fully published arrays.
+        int length = priorityLabels.length;
+        int[] labels = Arrays.copyOf(priorityLabels, Math.max(code + 1, length));
+        Arrays.fill(labels, length, labels.length, -1);
+        if (labels[code] < 0) {
+            labels[code] = encode(Sale.formatPriority(getString(code)));
+        }
+        priorityLabels = labels;
+        return labels[code];
+    }
+
+    private synchronized int add(int hash, byte[] buf, int offset, int length) {
+        Snapshot current = snapshot;
+        int code = find(current, hash, buf, offset, length);
+        if (code >= 0) {
+            return code;
+        }
+        code = current.size;
+        int[] slots = current.slots;
+        byte[][] values = current.values;
+        byte[][] csvValues = current.csvValues;
+        String[] strings = current.strings;
+        if (code == values.length) {
+            values = Arrays.copyOf(values, code * 2);
+            csvValues = Arrays.copyOf(csvValues, code * 2);
+            strings = Arrays.copyOf(strings, code * 2);
+            slots = new int[slots.length * 2];
+            for (int i = 0; i < code; i++) {
+                insert(slots, hash(values[i], 0, values[i].length), i);
+            }
+        }
+        values[code] = Arrays.copyOfRange(buf, offset, offset + length);
+        csvValues[code] = SaleCsvWriter.quote(values[code]);
+        strings[code] = new String(values[code], StandardCharsets.UTF_8);
+        insert(slots, hash, code);
+        snapshot = new Snapshot(slots, values, csvValues, strings, code + 1);
+        return code;
+    }
+
+    /**
+     * @return The code of the value or -1 if it is not in the snapshot.
+     */
+    private static int find(Snapshot s, int hash, byte[] buf, int offset, int length) {
+        int mask = s.slots.length - 1;
+        int slot = hash & mask;
+        while (true) {
+            int code = s.slots[slot] - 1;
+            if (code < 0 || code >= s.size) {
+                // Empty, or added after this snapshot was taken.
+                return -1;
+            }
+            byte[] value = s.values[code];
+            if (value.length == length && equals(value, buf, offset)) {
+                return code;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static void insert(int[] slots, int hash, int code) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        // Slots hold code + 1 so 0 can mean empty.
+        slots[slot] = code + 1;
+    }
+
+    private static boolean equals(byte[] value, byte[] buf, int offset) {
+        for (int i = 0; i < value.length; i++) {
+            if (value[i] != buf[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(byte[] buf, int offset, int length) {
+        int h = 0x811c9dc5;
+        for (int i = offset; i < offset + length; i++) {
+            h = (h ^ buf[i]) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+}
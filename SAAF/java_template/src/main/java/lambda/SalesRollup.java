@@ -0,0 +1,199 @@
+package lambda;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Totals of the transformed sales per region, country, item type and sales
+ * channel, computed while the rows stream through the transform so the
+ * output does not have to be read again to aggregate it.
+ *
+ * Groups are keyed by the SalesDictionary codes of the four columns in an
+ * open addressing table over primitive arrays, so adding a row neither
+ * decodes text nor allocates.
+ */
+public class SalesRollup {
+
+    public static final String HEADER = "Region,Country,Item Type,Sales Channel,Orders,Units Sold,Total Revenue,Total Cost,Total Profit\n";
+
+    private static final int KEY_COLUMNS = 4;
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final SalesDictionary dictionary;
+
+    // Group index + 1 for each slot, 0 if empty.
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
+    // Dictionary codes of the key columns, KEY_COLUMNS per group.
+    private int[] keys = new int[INITIAL_CAPACITY * KEY_COLUMNS];
+    private long[] orders = new long[INITIAL_CAPACITY];
+    private long[] unitsSold = new long[INITIAL_CAPACITY];
+    // Sums of the amounts in ten-thousandths, see Money.value.
+    private long[] totalRevenue = new long[INITIAL_CAPACITY];
+    private long[] totalCost = new long[INITIAL_CAPACITY];
+    private long[] totalProfit = new long[INITIAL_CAPACITY];
+    private int size = 0;
+
+    public SalesRollup(SalesDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Add every row of a batch, after duplicates have been removed.
+     */
+    public void add(SalesBatch batch) {
+        if (batch.dictionary != dictionary) {
+            throw new IllegalArgumentException("Batch uses a different dictionary");
+        }
+        for (int row = 0; row < batch.size; row++) {
+            int group = group(batch.region[row], batch.country[row], batch.itemType[row], batch.salesChannel[row]);
+            orders[group]++;
+            unitsSold[group] += batch.unitsSold[row];
+            totalRevenue[group] += Money.value(batch.totalRevenue[row]);
+            totalCost[group] += Money.value(batch.totalCost[row]);
+            totalProfit[group] += Money.value(batch.totalProfit[row]);
+        }
+    }
+
+    /**
+     * Add the totals of another rollup over the same dictionary.
+     */
+    public void merge(SalesRollup other) {
+        if (other.dictionary != dictionary) {
+            throw new IllegalArgumentException("Rollup uses a different dictionary");
+        }
+        for (int i = 0; i < other.size; i++) {
+            int k = i * KEY_COLUMNS;
+            int group = group(other.keys[k], other.keys[k + 1], other.keys[k + 2], other.keys[k + 3]);
+            orders[group] += other.orders[i];
+            unitsSold[group] += other.unitsSold[i];
+            totalRevenue[group] += other.totalRevenue[i];
+            totalCost[group] += other.totalCost[i];
+            totalProfit[group] += other.totalProfit[i];
+        }
+    }
+
+    /**
+     * @return The number of groups.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Write the groups as CSV, sorted by region, country, item type and
+     * sales channel.
+     */
+    public void writeCsv(OutputStream out) throws IOException {
+        StringBuilder sb = new StringBuilder(HEADER);
+        for (int group : sortedGroups()) {
+            int k = group * KEY_COLUMNS;
+            for (int c = 0; c < KEY_COLUMNS; c++) {
+                sb.append(new String(dictionary.getCsvBytes(keys[k + c]), StandardCharsets.UTF_8)).append(',');
+            }
+            sb.append(orders[group]).append(',').append(unitsSold[group]).append(',');
+            Money.appendTotal(sb, totalRevenue[group]).append(',');
+            Money.appendTotal(sb, totalCost[group]).append(',');
+            Money.appendTotal(sb, totalProfit[group]).append('\n');
+        }
+        out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Integer[] sortedGroups() {
+        Integer[] groups = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            groups[i] = i;
+        }
+        Comparator<Integer> byKey = (a, b) -> {
+            for (int c = 0; c < KEY_COLUMNS; c++) {
+                int cmp = dictionary.getString(keys[a * KEY_COLUMNS + c])
+                        .compareTo(dictionary.getString(keys[b * KEY_COLUMNS + c]));
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return 0;
+        };
+        Arrays.sort(groups, byKey);
+        return groups;
+    }
+
+    /**
+     * @return The index of the group for a key, adding it if new.
+     */
+    private int group(int region, int country, int itemType, int salesChannel) {
+        int mask = slots.length - 1;
+        int slot = hash(region, country, itemType, salesChannel) & mask;
+        while (true) {
+            int group = slots[slot] - 1;
+            if (group < 0) {
+                return add(slot, region, country, itemType, salesChannel);
+            }
+            int k = group * KEY_COLUMNS;
+            if (keys[k] == region && keys[k + 1] == country && keys[k + 2] == itemType && keys[k + 3] == salesChannel) {
+                return group;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private int add(int slot, int region, int country, int itemType, int salesChannel) {
+        if (size == orders.length) {
+            grow();
+            slot = freeSlot(hash(region, country, itemType, salesChannel));
+        }
+        int group = size++;
+        slots[slot] = group + 1;
+        setKey(group, region, country, itemType, salesChannel);
+        return group;
+    }
+
+    private int freeSlot(int hash) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void setKey(int group, int region, int country, int itemType, int salesChannel) {
+        int k = group * KEY_COLUMNS;
+        keys[k] = region;
+        keys[k + 1] = country;
+        keys[k + 2] = itemType;
+        keys[k + 3] = salesChannel;
+    }
+
+    private void grow() {
+        int capacity = orders.length * 2;
+        keys = Arrays.copyOf(keys, capacity * KEY_COLUMNS);
+        orders = Arrays.copyOf(orders, capacity);
+        unitsSold = Arrays.copyOf(unitsSold, capacity);
+        totalRevenue = Arrays.copyOf(totalRevenue, capacity);
+        totalCost = Arrays.copyOf(totalCost, capacity);
+        totalProfit = Arrays.copyOf(totalProfit, capacity);
+        // Keep the load factor at or below one half.
+        slots = new int[capacity * 2];
+        for (int group = 0; group < size; group++) {
+            int k = group * KEY_COLUMNS;
+            slots[freeSlot(hash(keys[k], keys[k + 1], keys[k + 2], keys[k + 3]))] = group + 1;
+        }
+    }
+
+    private static int hash(int region, int country, int itemType, int salesChannel) {
+        int h = region;
+        h = h * 31 + country;
+        h = h * 31 + itemType;
+        h = h * 31 + salesChannel;
+        // murmur3 fmix32
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
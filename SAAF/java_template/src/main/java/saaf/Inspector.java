@@ -7,20 +7,37 @@ import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.util.Arrays;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 /**
  * SAAF
@@ -30,11 +47,102 @@ import java.util.stream.Collectors;
  */
 public class Inspector {
 
+    private static final Metric[] METRICS = Metric.values();
+    private static final Map<String, Metric> METRICS_BY_KEY = new HashMap<>();
+
+    static {
+        for (Metric m : METRICS) {
+            METRICS_BY_KEY.put(m.key, m);
+        }
+    }
+
+    // Fields of the cpu line of /proc/stat, in order, and their deltas.
+    private static final Metric[] CPU_METRICS = {Metric.CPU_USR, Metric.CPU_NICE, Metric.CPU_KRN,
+        Metric.CPU_IDLE, Metric.CPU_IOWAIT, Metric.CPU_IRQ, Metric.CPU_SOFT_IRQ, Metric.VM_CPU_STEAL};
+    private static final Metric[] CPU_METRIC_DELTAS = {Metric.CPU_USR_DELTA, Metric.CPU_NICE_DELTA, Metric.CPU_KRN_DELTA,
+        Metric.CPU_IDLE_DELTA, Metric.CPU_IOWAIT_DELTA, Metric.CPU_IRQ_DELTA, Metric.CPU_SOFT_IRQ_DELTA, Metric.VM_CPU_STEAL_DELTA};
+
+    // Keys of the /proc lines that are parsed.
+    private static final byte[] CPU = ascii("cpu");
+    private static final byte[] CTXT = ascii("ctxt");
+    private static final byte[] BTIME = ascii("btime");
+    private static final byte[] PGFAULT = ascii("pgfault");
+    private static final byte[] PGMAJFAULT = ascii("pgmajfault");
+    private static final byte[] MEM_TOTAL = ascii("MemTotal");
+    private static final byte[] MEM_FREE = ascii("MemFree");
+    private static final byte[] MODEL_NAME = ascii("model name");
+    private static final byte[] MODEL = ascii("model");
+    private static final byte[] CPU_CORES = ascii("cpu cores");
+    private static final byte[][] CPU_KEYS = {CPU, CTXT};
+    private static final byte[][] PAGE_FAULT_KEYS = {PGFAULT, PGMAJFAULT};
+    private static final byte[][] MEM_KEYS = {MEM_TOTAL, MEM_FREE};
+
+    // Shared by all Inspectors, so files and buffers are reused by warm invocations.
+    private static final ProcFile PROC_STAT = new ProcFile("/proc/stat");
+    private static final ProcFile PROC_VMSTAT = new ProcFile("/proc/vmstat");
+    private static final ProcFile PROC_MEMINFO = new ProcFile("/proc/meminfo");
+    private static final ProcFile PROC_CPUINFO = new ProcFile("/proc/cpuinfo");
+    private static final ProcFile PROC_SELF_STAT = new ProcFile("/proc/self/stat");
+
+    // utime and stime, fields 14 and 15 of /proc/self/stat.
+    private static final int PROCESS_CPU_FIELD = 14;
+    private static final Metric[] PROCESS_CPU_METRICS = {Metric.PROCESS_CPU_USR, Metric.PROCESS_CPU_KRN};
+    private static final Metric[] PROCESS_CPU_METRIC_DELTAS = {Metric.PROCESS_CPU_USR_DELTA, Metric.PROCESS_CPU_KRN_DELTA};
+    // Values of ThreadCounters.read, in order, and their deltas.
+    private static final Metric[] THREAD_METRICS = {Metric.THREAD_CPU_TIME, Metric.THREAD_USER_TIME,
+        Metric.THREAD_ALLOCATED_BYTES};
+    private static final Metric[] THREAD_METRIC_DELTAS = {Metric.THREAD_CPU_TIME_DELTA, Metric.THREAD_USER_TIME_DELTA,
+        Metric.THREAD_ALLOCATED_BYTES_DELTA};
+    // Values of JvmCounters.read, in order, and their deltas.
+    private static final Metric[] JVM_METRICS = {Metric.GC_COUNT, Metric.GC_TIME, Metric.HEAP_USED,
+        Metric.HEAP_COMMITTED, Metric.NON_HEAP_USED, Metric.NON_HEAP_COMMITTED, Metric.JIT_COMPILE_TIME,
+        Metric.LOADED_CLASSES};
+    private static final Metric[] JVM_METRIC_DELTAS = {Metric.GC_COUNT_DELTA, Metric.GC_TIME_DELTA, Metric.HEAP_USED_DELTA,
+        Metric.HEAP_COMMITTED_DELTA, Metric.NON_HEAP_USED_DELTA, Metric.NON_HEAP_COMMITTED_DELTA,
+        Metric.JIT_COMPILE_TIME_DELTA, Metric.LOADED_CLASSES_DELTA};
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    // Readable bean properties of each Response class, looked up once per class.
+    private static final ClassValue<ResponseProperty[]> RESPONSE_PROPERTIES = new ClassValue<ResponseProperty[]>() {
+        @Override
+        protected ResponseProperty[] computeValue(Class<?> type) {
+            return ResponseProperty.forClass(type);
+        }
+    };
+
+    // Attributes that cannot change within a container, collected once.
+    private static volatile ContainerMetadata containerMetadata;
+
+    // Numeric attributes with a slot, by Metric ordinal, all others by name.
+    private final long[] metrics = new long[METRICS.length];
+    private final boolean[] hasMetric = new boolean[METRICS.length];
     private final HashMap<String, Object> attributes;
     private final long startTime;
+    // Monotonic clock for timings, startTime only dates the output.
+    private final long startNanos;
+    private long frameworkNanos = -1;
+
+    // Spans in the order they were started, and the open ones, innermost first.
+    private final List<Span> spans = new ArrayList<>();
+    private final ArrayDeque<Span> openSpans = new ArrayDeque<>();
+    private ContainerMetadata metadata;
+    private boolean metadataCached;
+
+    // Background collection of inspectAllAsync, joined by finish.
+    private Thread metadataThread;
+    private ContainerMetadata asyncMetadata;
+    private boolean asyncMetadataCached;
+    private RuntimeException asyncFailure;
+    private long asyncNanos;
+
+    // Thread that called inspectThread, the thread deltas are of this thread.
+    private long cpuThread;
 
     private boolean inspectedCPU = false;
+    private boolean inspectedThread = false;
     private boolean inspectedMemory = false;
+    private boolean inspectedJVM = false;
     private boolean inspectedContainer = false;
     private boolean inspectedPlatform = false;
     private boolean inspectedLinux = false;
@@ -43,16 +151,19 @@ public class Inspector {
      * Initialize Inspector.
      *
      * attributes: Used to store information collected by each function.
+     * Counters and timings are kept as primitive longs until finish.
+     * Timings are measured with System.nanoTime and reported in ms.
      * version: Inspector version.
      * lang: Function language (java).
      */
     public Inspector() {
         startTime = System.currentTimeMillis();
+        startNanos = System.nanoTime();
         attributes = new HashMap<>();
 
         attributes.put("version", 0.5);
         attributes.put("lang", "java");
-        attributes.put("startTime", startTime);
+        setMetric(Metric.START_TIME, startTime);
     }
 
     /**
@@ -69,55 +180,10 @@ public class Inspector {
         }
         inspectedContainer = true;
 
-        //Stamp Container
-        int newContainer;
-        String uuid = "";
-
-        File f = new File("/tmp/container-id");
-        Path p = Paths.get("/tmp/container-id");
-        if (f.exists()) {
-            newContainer = 0;
-            try (BufferedReader br = Files.newBufferedReader(p)) {
-                uuid = br.readLine();
-                br.close();
-            } catch (IOException ioe) {
-                //sError = STAMP_ERR_READING_EXISTING_UUID;
-            }
-        } else {
-            newContainer = 1;
-            try (BufferedWriter bw = Files.newBufferedWriter(p,
-                    StandardCharsets.US_ASCII, StandardOpenOption.CREATE_NEW)) {
-                uuid = UUID.randomUUID().toString();
-                bw.write(uuid);
-                bw.close();
-            } catch (IOException ioe) {
-                //sError = STAMP_ERR_WRITING_NEW_UUID;
-            }
-        }
-
-        attributes.put("uuid", uuid);
-        attributes.put("newcontainer", newContainer);
-
-        //Get VM Uptime
-        String filename = "/proc/stat";
-        f = new File(filename);
-        p = Paths.get(filename);
-        String text;
-        if (f.exists()) {
-            try (BufferedReader br = Files.newBufferedReader(p)) {
-                while ((text = br.readLine()) != null && text.length() != 0) {
-                    // get boot time in ms since epoch 
-                    if (text.contains("btime")) {
-                        String prms[] = text.split(" ");
-                        attributes.put("vmuptime", Long.parseLong(prms[1]));
-                    }
-                }
-                br.close();
-
-            } catch (IOException ioe) {
-                //sb.append("Error reading file=" + filename);
-            }
-        }
+        ContainerMetadata m = getMetadata();
+        attributes.putAll(m.container);
+        // Only the Inspector that stamped the container sees it as new.
+        attributes.put("newcontainer", metadataCached ? 0 : m.newContainer);
     }
 
     /**
@@ -135,82 +201,38 @@ public class Inspector {
      * cpuSoftIrq: Time spent servicing software interrupts.
      * vmcpusteal: Time spent waiting for real CPU while hypervisor is using another virtual CPU.
      * contextSwitches: Number of context switches.
+     * processCpuUsr: Time this process spent in user mode.
+     * processCpuKrn: Time this process spent in kernel mode.
+     *
+     * CPU and process times are in clock ticks (USER_HZ, usually 1/100 s).
+     * Times of the calling thread are added by inspectThread.
      */
     public void inspectCPU() {
         inspectedCPU = true;
 
-        String text;
-        int start;
-        int end;
-
-        String cpuType = "unknown";
-        String cpuModel = "unknown";
-        String cpuCores = "unknown";
-
-        try
-        {
-            //Get CPU Type
-            text = getFileAsString("/proc/cpuinfo");
-            start = text.indexOf("name") + 7;
-            if (start > -1)
-            {
-                end = start + text.substring(start).indexOf(":");
-                cpuType = text.substring(start, end - 9).trim();
-            }
+        attributes.putAll(getMetadata().cpu);
+        sampleCPU();
+    }
 
-            //Get CPU Model
-            start = text.indexOf("model") + 9;
-            if (start > -1)
-            {
-                end = start + text.substring(start).indexOf(":");
-                cpuModel = text.substring(start, end - 11).trim();
+    /**
+     * Record the CPU counters of inspectCPU, without the CPU model.
+     */
+    private void sampleCPU() {
+        //Get CPU Metrics
+        long[][] values = readCPUMetrics();
+        if (values != null) {
+            for (int i = 0; i < CPU_METRICS.length; i++) {
+                setMetric(CPU_METRICS[i], values[0][i]);
             }
-
-            //Get CPU Core Count
-            start = text.indexOf("cpu cores") + 12;
-            if (start > -1)
-            {
-                end = start + text.substring(start).indexOf(":");
-                cpuCores = text.substring(start, end - 9).trim();
+            if (values[1][0] >= 0) {
+                setMetric(Metric.CONTEXT_SWITCHES, values[1][0]);
             }
         }
-        catch (Exception e)
-        {
-            System.err.println("Difficulty processing /proc/cpuinfo.  Is this an Intel platform?  Some attributes may be unavailable.");
-        }
-        finally
-        {
-            attributes.put("cpuType", cpuType);
-            attributes.put("cpuModel", cpuModel);
-            attributes.put("cpuCores", cpuCores);
-        }
 
-        //Get CPU Metrics
-        String filename = "/proc/stat";
-        File f = new File(filename);
-        Path p = Paths.get(filename);
-        if (f.exists()) {
-            try (BufferedReader br = Files.newBufferedReader(p)) {
-                text = br.readLine();
-                String params[] = text.split(" ");
-
-                String[] metricNames = {"cpuUsr", "cpuNice", "cpuKrn", "cpuIdle",
-                    "cpuIowait", "cpuIrq", "cpuSoftIrq", "vmcpusteal"};
-
-                for (int i = 0; i < metricNames.length; i++) {
-                    attributes.put(metricNames[i], Long.parseLong(params[i + 2]));
-                }
-
-                while ((text = br.readLine()) != null && text.length() != 0) {
-                    if (text.contains("ctxt")) {
-                        String prms[] = text.split(" ");
-                        attributes.put("contextSwitches", Long.parseLong(prms[1]));
-                    }
-                }
-
-                br.close();
-            } catch (IOException ioe) {
-                //sb.append("Error reading file=" + filename);
+        long[] process = readProcessCPU();
+        if (process != null) {
+            for (int i = 0; i < PROCESS_CPU_METRICS.length; i++) {
+                setMetric(PROCESS_CPU_METRICS[i], process[i]);
             }
         }
     }
@@ -227,37 +249,30 @@ public class Inspector {
      * cpuSoftIrqDelta: Time spent servicing software interrupts.
      * vmcpustealDelta: Time spent waiting for real CPU while hypervisor is using another virtual CPU.
      * contextSwitchesDelta: Number of context switches.
+     * processCpuUsrDelta: Time this process spent in user mode.
+     * processCpuKrnDelta: Time this process spent in kernel mode.
+     *
+     * The system-wide deltas include other processes of the host. The
+     * process deltas include all threads of the JVM, such as worker pools
+     * and the garbage collector.
      */
     public void inspectCPUDelta() {
         if (inspectedCPU) {
-            String text;
-
             //Get CPU Metrics
-            String filename = "/proc/stat";
-            File f = new File(filename);
-            Path p = Paths.get(filename);
-            if (f.exists()) {
-                try (BufferedReader br = Files.newBufferedReader(p)) {
-                    text = br.readLine();
-                    String params[] = text.split(" ");
-
-                    String[] metricNames = {"cpuUsr", "cpuNice", "cpuKrn", "cpuIdle",
-                        "cpuIowait", "cpuIrq", "cpuSoftIrq", "vmcpusteal"};
-
-                    for (int i = 0; i < metricNames.length; i++) {
-                        attributes.put(metricNames[i] + "Delta", Long.parseLong(params[i + 2]) - (Long)attributes.get(metricNames[i]));
-                    }
-
-                    while ((text = br.readLine()) != null && text.length() != 0) {
-                        if (text.contains("ctxt")) {
-                            String prms[] = text.split(" ");
-                            attributes.put("contextSwitchesDelta", Long.parseLong(prms[1]) - (Long)attributes.get("contextSwitches"));
-                        }
-                    }
+            long[][] values = readCPUMetrics();
+            if (values != null) {
+                for (int i = 0; i < CPU_METRICS.length; i++) {
+                    setDelta(CPU_METRIC_DELTAS[i], CPU_METRICS[i], values[0][i]);
+                }
+                if (values[1][0] >= 0) {
+                    setDelta(Metric.CONTEXT_SWITCHES_DELTA, Metric.CONTEXT_SWITCHES, values[1][0]);
+                }
+            }
 
-                    br.close();
-                } catch (IOException ioe) {
-                    //sb.append("Error reading file=" + filename);
+            long[] process = readProcessCPU();
+            if (process != null) {
+                for (int i = 0; i < PROCESS_CPU_METRICS.length; i++) {
+                    setDelta(PROCESS_CPU_METRIC_DELTAS[i], PROCESS_CPU_METRICS[i], process[i]);
                 }
             }
         } else {
@@ -277,32 +292,20 @@ public class Inspector {
     public void inspectMemory() {
 
         inspectedMemory = true;
-        String memInfo = getFileAsString("/proc/meminfo");
-        String[] lines = memInfo.split("\n");
-        attributes.put("totalMemory", lines[0].replace("MemTotal:", "").replace("\t", "").replace(" kB", "").replace(" ", ""));
-        attributes.put("freeMemory", lines[1].replace("MemFree:", "").replace("\t", "").replace(" kB", "").replace(" ", ""));
-
-        String text;
+        long[][] memInfo = {{-1}, {-1}};
+        if (PROC_MEMINFO.readValues(MEM_KEYS, memInfo)) {
+            attributes.put("totalMemory", Long.toString(memInfo[0][0]));
+            attributes.put("freeMemory", Long.toString(memInfo[1][0]));
+        }
 
         //Get Memory Metrics
-        String filename = "/proc/vmstat";
-        File f = new File(filename);
-        Path p = Paths.get(filename);
-        if (f.exists()) {
-            try (BufferedReader br = Files.newBufferedReader(p)) {
-                while ((text = br.readLine()) != null && text.length() != 0) {
-                    if (text.contains("pgfault")) {
-                        String prms[] = text.split(" ");
-                        attributes.put("pageFaults", Long.parseLong(prms[1]));
-                    } else if (text.contains("pgmajfault")) {
-                        String prms[] = text.split(" ");
-                        attributes.put("majorPageFaults", Long.parseLong(prms[1]));
-                    }
-                }
-
-                br.close();
-            } catch (IOException ioe) {
-                //sb.append("Error reading file=" + filename);
+        long[][] values = readPageFaults();
+        if (values != null) {
+            if (values[0][0] >= 0) {
+                setMetric(Metric.PAGE_FAULTS, values[0][0]);
+            }
+            if (values[1][0] >= 0) {
+                setMetric(Metric.MAJOR_PAGE_FAULTS, values[1][0]);
             }
         }
     }
@@ -315,31 +318,125 @@ public class Inspector {
      */
     public void inspectMemoryDelta() {
         if (inspectedMemory) {
-            String text;
+            //Get Memory Metrics
+            long[][] values = readPageFaults();
+            if (values != null) {
+                if (values[0][0] >= 0) {
+                    setDelta(Metric.PAGE_FAULTS_DELTA, Metric.PAGE_FAULTS, values[0][0]);
+                }
+                if (values[1][0] >= 0) {
+                    setDelta(Metric.MAJOR_PAGE_FAULTS_DELTA, Metric.MAJOR_PAGE_FAULTS, values[1][0]);
+                }
+            }
+        } else {
+            attributes.put("SAAFMemoryDeltaError", "Memory not inspected before collecting deltas!");
+        }
+    }
 
-            //Get CPU Metrics
-            String filename = "/proc/vmstat";
-            File f = new File(filename);
-            Path p = Paths.get(filename);
-            if (f.exists()) {
-                try (BufferedReader br = Files.newBufferedReader(p)) {
-                    while ((text = br.readLine()) != null && text.length() != 0) {
-                        if (text.contains("pgfault")) {
-                            String prms[] = text.split(" ");
-                            attributes.put("pageFaultsDelta", Long.parseLong(prms[1]) - (Long)attributes.get("pageFaults"));
-                        } else if (text.contains("pgmajfault")) {
-                            String prms[] = text.split(" ");
-                            attributes.put("majorPageFaultsDelta", Long.parseLong(prms[1]) - (Long)attributes.get("majorPageFaults"));
-                        }
-                    }
+    /**
+     * Collect CPU time and heap allocation of the calling thread. Not part of
+     * inspectAll, since setting up the thread management bean takes some ms
+     * on a new container. Call it before inspectAll or inspectAllAsync, so
+     * that time counts as frameworkRuntime, and inspectAllDeltas adds its
+     * deltas.
+     *
+     * threadCpuTime:        CPU time of the calling thread in ns.
+     * threadUserTime:       User mode CPU time of the calling thread in ns.
+     * threadAllocatedBytes: Bytes allocated on the heap by the calling thread.
+     *
+     * Attributes are left out where the JVM cannot measure them.
+     */
+    public void inspectThread() {
+        inspectedThread = true;
+        cpuThread = Thread.currentThread().getId();
+        long[] values = ThreadCounters.read(cpuThread);
+        for (int i = 0; i < THREAD_METRICS.length; i++) {
+            if (values[i] >= 0) {
+                setMetric(THREAD_METRICS[i], values[i]);
+            }
+        }
+    }
 
-                    br.close();
-                } catch (IOException ioe) {
-                    //sb.append("Error reading file=" + filename);
+    /**
+     * Compare the counters of inspectThread to their current values, for
+     * the thread that called inspectThread. Work of other threads, such as
+     * worker pools, is only in the process deltas of inspectCPUDelta.
+     *
+     * threadCpuTimeDelta:        CPU time in ns.
+     * threadUserTimeDelta:       User mode CPU time in ns.
+     * threadAllocatedBytesDelta: Bytes allocated on the heap.
+     */
+    public void inspectThreadDelta() {
+        if (inspectedThread) {
+            long[] values = ThreadCounters.read(cpuThread);
+            for (int i = 0; i < THREAD_METRICS.length; i++) {
+                if (values[i] >= 0) {
+                    setDelta(THREAD_METRIC_DELTAS[i], THREAD_METRICS[i], values[i]);
                 }
             }
         } else {
-            attributes.put("SAAFMemoryDeltaError", "Memory not inspected before collecting deltas!");
+            attributes.put("SAAFThreadDeltaError", "Thread not inspected before collecting deltas!");
+        }
+    }
+
+    /**
+     * Collect garbage collection, heap, JIT and class loading counters of
+     * the JVM. Not part of inspectAll, since setting up the management beans
+     * takes some ms on a new container. Call it before inspectAll or
+     * inspectAllAsync, so that time counts as frameworkRuntime, and
+     * inspectAllDeltas adds its deltas.
+     *
+     * gcCollectors:     Names of the garbage collectors, comma separated.
+     * gcCount:          Collections by all collectors since JVM start.
+     * gcTime:           Time in ms spent in collections since JVM start.
+     * heapUsed:         Heap in use in bytes.
+     * heapCommitted:    Heap committed by the JVM in bytes.
+     * heapMax:          Maximum heap size in bytes, if defined.
+     * nonHeapUsed:      Non-heap memory (metaspace, code cache) in use in bytes.
+     * nonHeapCommitted: Non-heap memory committed in bytes.
+     * jitCompileTime:   Time in ms spent in JIT compilation since JVM start.
+     * loadedClasses:    Number of classes currently loaded.
+     *
+     * Counters are left out where the JVM does not provide them.
+     */
+    public void inspectJVM() {
+        inspectedJVM = true;
+        attributes.put("gcCollectors", JvmCounters.COLLECTOR_NAMES);
+        long max = JvmCounters.MEMORY.getHeapMemoryUsage().getMax();
+        if (max >= 0) {
+            setMetric(Metric.HEAP_MAX, max);
+        }
+        long[] values = JvmCounters.read();
+        for (int i = 0; i < JVM_METRICS.length; i++) {
+            if (values[i] >= 0) {
+                setMetric(JVM_METRICS[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * Compare the counters of inspectJVM to their current values.
+     *
+     * gcCountDelta:          Collections during user code.
+     * gcTimeDelta:           Time in ms spent in collections during user code.
+     * heapUsedDelta:         Change of heap in use in bytes, negative when
+     *                        collections freed more than was allocated.
+     * heapCommittedDelta:    Change of committed heap in bytes.
+     * nonHeapUsedDelta:      Change of non-heap memory in use in bytes.
+     * nonHeapCommittedDelta: Change of committed non-heap memory in bytes.
+     * jitCompileTimeDelta:   Time in ms spent in JIT compilation.
+     * loadedClassesDelta:    Change of the number of loaded classes.
+     */
+    public void inspectJVMDelta() {
+        if (inspectedJVM) {
+            long[] values = JvmCounters.read();
+            for (int i = 0; i < JVM_METRICS.length; i++) {
+                if (values[i] >= 0) {
+                    setDelta(JVM_METRIC_DELTAS[i], JVM_METRICS[i], values[i]);
+                }
+            }
+        } else {
+            attributes.put("SAAFJVMDeltaError", "JVM not inspected before collecting deltas!");
         }
     }
 
@@ -360,44 +457,7 @@ public class Inspector {
         }
         inspectedPlatform = true;
 
-        String key = System.getenv("AWS_LAMBDA_LOG_STREAM_NAME");
-        if (key != null) {
-            attributes.put("platform", "AWS Lambda");
-            attributes.put("containerID", key);
-            attributes.put("functionName", System.getenv("AWS_LAMBDA_FUNCTION_NAME"));
-            attributes.put("functionMemory", System.getenv("AWS_LAMBDA_FUNCTION_MEMORY_SIZE"));
-            attributes.put("functionRegion", System.getenv("AWS_REGION"));
-
-            String vmID = runCommand(new String[]{"cat", "/proc/self/cgroup"});
-            int index = vmID.indexOf("sandbox-root");
-            attributes.put("vmID", vmID.substring(index + 13, index + 19));
-        } else {
-            key = System.getenv("X_GOOGLE_FUNCTION_NAME");
-            if (key != null) {
-                attributes.put("platform", "Google Cloud Functions");
-                attributes.put("functionName", key);
-                attributes.put("functionMemory", System.getenv("X_GOOGLE_FUNCTION_MEMORY_MB"));
-                attributes.put("functionRegion", System.getenv("X_GOOGLE_FUNCTION_REGION"));
-            } else {
-                key = System.getenv("__OW_ACTION_NAME");
-                if (key != null) {
-                    attributes.put("platform", "IBM Cloud Functions");
-                    attributes.put("functionName", key);
-                    attributes.put("functionRegion", System.getenv("__OW_API_HOST"));
-                    attributes.put("vmID", runCommand(new String[]{"cat", "/sys/hypervisor/uuid"}).trim());
-                } else {
-                    key = System.getenv("CONTAINER_NAME");
-                    if (key != null) {
-                        attributes.put("platform", "Azure Functions");
-                        attributes.put("containerID", key);
-                        attributes.put("functionName", "WEBSITE_SITE_NAME");
-                        attributes.put("functionRegion", System.getenv("Location"));
-                    } else {
-                        attributes.put("platform", "Unknown Platform");
-                    }
-                }
-            }
-        }
+        attributes.putAll(getMetadata().platform);
     }
 
     /**
@@ -411,12 +471,18 @@ public class Inspector {
             return;
         }
         inspectedLinux = true;
-        String linuxVersion = runCommand(new String[]{"uname", "-a"}).trim();
-        attributes.put("linuxVersion", linuxVersion);
+        attributes.putAll(getMetadata().linux);
     }
 
     /**
      * Run all data collection methods and record framework runtime.
+     *
+     * Container, platform, linux and CPU model attributes are collected once
+     * per container. Later Inspectors copy them and only sample the CPU and
+     * memory counters.
+     *
+     * metadataCached: 1 if the container attributes were collected by an
+     *                 earlier Inspector of this container, 0 otherwise.
      */
     public void inspectAll() {
         this.inspectContainer();
@@ -427,21 +493,60 @@ public class Inspector {
         this.addTimeStamp("frameworkRuntime");
     }
 
+    /**
+     * Like inspectAll, but only the memory and CPU counters are sampled
+     * before returning. On a new container the container, platform, linux
+     * and CPU model attributes are collected on a background thread while
+     * user code runs, and added by finish. On a warm container they are
+     * cached and added right away.
+     *
+     * frameworkRuntime:      The time in ms before user code could start.
+     * frameworkAsyncRuntime: The time in ms the background collection took,
+     *                        overlapping user code.
+     * frameworkAsyncWait:    The time in ms finish waited for the background
+     *                        collection to complete.
+     */
+    public void inspectAllAsync() {
+        inspectedContainer = true;
+        inspectedPlatform = true;
+        inspectedLinux = true;
+        inspectedCPU = true;
+        this.inspectMemory();
+        this.sampleCPU();
+        if (containerMetadata != null) {
+            addMetadata(containerMetadata, true);
+        } else {
+            metadataThread = new Thread(this::collectMetadata, "saaf-inspector-" + THREAD_COUNT.incrementAndGet());
+            metadataThread.setDaemon(true);
+            metadataThread.start();
+        }
+        this.addTimeStamp("frameworkRuntime");
+    }
+
     /**
      * Run all delta collection methods add userRuntime attribute to further isolate
-     * use code runtime from time spent collecting data.
+     * use code runtime from time spent collecting data. Thread and JVM
+     * deltas are only added if inspectThread and inspectJVM were called.
      */
     public void inspectAllDeltas() {
 
         // Add the 'userRuntime' timestamp.
-        if (attributes.containsKey("frameworkRuntime")) {
-            this.addTimeStamp("userRuntime", this.startTime + (Long)attributes.get("frameworkRuntime"));
+        long deltaStart = System.nanoTime();
+        if (frameworkNanos >= 0) {
+            setMetric(Metric.USER_RUNTIME, (deltaStart - startNanos - frameworkNanos) / 1_000_000);
+        } else if (hasMetric(Metric.FRAMEWORK_RUNTIME)) {
+            this.addTimeStamp("userRuntime", this.startTime + getMetric(Metric.FRAMEWORK_RUNTIME));
         }
 
-        long deltaTime = System.currentTimeMillis();
         this.inspectCPUDelta();
         this.inspectMemoryDelta();
-        this.addTimeStamp("frameworkRuntimeDeltas", deltaTime);
+        if (inspectedThread) {
+            this.inspectThreadDelta();
+        }
+        if (inspectedJVM) {
+            this.inspectJVMDelta();
+        }
+        setMetric(Metric.FRAMEWORK_RUNTIME_DELTAS, (System.nanoTime() - deltaStart) / 1_000_000);
     }
 
     /**
@@ -451,6 +556,14 @@ public class Inspector {
      * @param value The value to associate with that key.
      */
     public void addAttribute(String key, Object value) {
+        Metric m = METRICS_BY_KEY.get(key);
+        if (m != null) {
+            if (value instanceof Long) {
+                setMetric(m, (Long) value);
+                return;
+            }
+            hasMetric[m.ordinal()] = false;
+        }
         attributes.put(key, value);
     }
 
@@ -461,30 +574,50 @@ public class Inspector {
      * @return The object itself. Cast into appropriate data type.
      */
     public Object getAttribute(String key) {
+        Metric m = METRICS_BY_KEY.get(key);
+        if (m != null && hasMetric(m)) {
+            return getMetric(m);
+        }
         return attributes.get(key);
     }
 
     /**
      * Add custom time stamps to the output. The key value determines the name
-     * of the attribute and the value will be the time from Inspector
-     * initialization to this function call.
+     * of the attribute and the value will be the time in ms from Inspector
+     * initialization to this function call, on the monotonic clock.
      *
      * @param key The name of the time stamp.
      */
     public void addTimeStamp(String key) {
-        addTimeStamp(key, startTime);
+        long elapsed = System.nanoTime() - startNanos;
+        Metric m = METRICS_BY_KEY.get(key);
+        if (m != null) {
+            if (m == Metric.FRAMEWORK_RUNTIME) {
+                frameworkNanos = elapsed;
+            }
+            setMetric(m, elapsed / 1_000_000);
+        } else {
+            attributes.put(key, elapsed / 1_000_000);
+        }
     }
 
     /**
      * Add a custom time stamp to the output. This will append the
      * time in milliseconds between the current time and the timeSince variable.
+     * timeSince is wall-clock time from System.currentTimeMillis, use spans
+     * for intervals that need a finer or monotonic clock.
      * 
      * @param key The key to add to the output.
      * @param timeSince The time to compare to.
      */
     public void addTimeStamp(String key, long timeSince) {
-        Long currentTime = System.currentTimeMillis();
-        attributes.put(key, currentTime - timeSince);
+        long currentTime = System.currentTimeMillis();
+        Metric m = METRICS_BY_KEY.get(key);
+        if (m != null) {
+            setMetric(m, currentTime - timeSince);
+        } else {
+            attributes.put(key, currentTime - timeSince);
+        }
     }
 
     /**
@@ -493,15 +626,28 @@ public class Inspector {
      * @param response The response object to consume.
      */
     public void consumeResponse(Response response) {
-        Map<String, Object> responseMap = beanProperties(response);
-        if (responseMap == null) {
-            attributes.put("SAAFConsumeReponseError", "There was an error consuming the response object. See logs for details."+             
-            "Response object may have fields that were null or could not be cast.");
+        if (response == null) {
+            attributes.put("SAAFConsumeReponseError", "There was an error consuming the response object. The response was null.");
             return;
         }
-        responseMap.keySet().forEach((s) -> {
-            attributes.put(s, responseMap.get(s));
-        });
+        ResponseProperty[] properties;
+        try {
+            properties = RESPONSE_PROPERTIES.get(response.getClass());
+        } catch (RuntimeException e) {
+            System.out.println(e.toString());
+            attributes.put("SAAFConsumeReponseError", "There was an error consuming the response object. See logs for details.");
+            return;
+        }
+        for (ResponseProperty property : properties) {
+            try {
+                // Null values are kept, like any other attribute.
+                addAttribute(property.name, property.getter.apply(response));
+            } catch (Exception e) {
+                System.out.println(e.toString());
+                attributes.put("SAAFConsumeReponseError", "There was an error reading the property " + property.name
+                        + " of the response object. See logs for details.");
+            }
+        }
     }
 
     /**
@@ -511,9 +657,18 @@ public class Inspector {
      * @return Attributes collected by the Inspector.
      */
     public HashMap<String, Object> finish() {
+        awaitMetadata();
         this.addTimeStamp("runtime");
-        attributes.put("endTime", System.currentTimeMillis());
-        return attributes;
+        setMetric(Metric.END_TIME, System.currentTimeMillis());
+
+        HashMap<String, Object> result = new HashMap<>(attributes);
+        for (Metric m : METRICS) {
+            if (hasMetric[m.ordinal()]) {
+                result.put(m.key, metrics[m.ordinal()]);
+            }
+        }
+        addSpans(result);
+        return result;
     }
 
     /**
@@ -528,95 +683,917 @@ public class Inspector {
     }
 
     /**
-     * Read a file and return it as a String.
+     * Start a span, a named interval of user code timed with System.nanoTime.
+     * A span started while another one is open is nested in it. Close spans
+     * with end, or start them in a try-with-resources statement. Ending a
+     * span ends the spans still open in it. Spans belong to the thread using
+     * the Inspector.
      *
-     * @param filename The file name/path to read.
-     * @return The entire content of the file as a string.
-     */
-    private static String getFileAsString(String filename) {
-        File f = new File(filename);
-        Path p = Paths.get(filename);
-        String text;
-        StringBuilder sb = new StringBuilder();
-        if (f.exists()) {
-            try (BufferedReader br = Files.newBufferedReader(p)) {
-                while ((text = br.readLine()) != null) {
-                    sb.append(text);
-                    sb.append("\n");
+     * A span can be started again after it ended, to time a phase that is
+     * interleaved with others, such as the steps of a loop. Its duration is
+     * then the sum of its intervals.
+     *
+     * finish adds the following for spans, open spans end at finish:
+     *
+     * [name]Time: Total duration in ms of the spans with that name, with
+     *             microsecond precision.
+     * spans:      A list with id, parentId (0 at the top level), name,
+     *             start (ms after Inspector initialization), duration (ms)
+     *             and count (number of intervals) of every span.
+     *
+     * @param name The name of the span.
+     * @return The started span.
+     */
+    public Span startSpan(String name) {
+        Span parent = openSpans.peekFirst();
+        Span span = new Span(spans.size() + 1, parent == null ? 0 : parent.id, name);
+        spans.add(span);
+        return span.start();
+    }
+
+    /**
+     * End a span started with startSpan.
+     *
+     * @param span The span to end.
+     */
+    public void endSpan(Span span) {
+        span.end();
+    }
+
+    /**
+     * Add the span attributes of finish to the output.
+     */
+    private void addSpans(HashMap<String, Object> result) {
+        if (spans.isEmpty()) {
+            return;
+        }
+        while (!openSpans.isEmpty()) {
+            openSpans.peekLast().end();
+        }
+        LinkedHashMap<String, Long> totals = new LinkedHashMap<>();
+        List<Map<String, Object>> list = new ArrayList<>(spans.size());
+        for (Span span : spans) {
+            Long total = totals.get(span.name);
+            totals.put(span.name, total == null ? span.nanos : total + span.nanos);
+
+            LinkedHashMap<String, Object> entry = new LinkedHashMap<>();
+            entry.put("id", span.id);
+            entry.put("parentId", span.parentId);
+            entry.put("name", span.name);
+            entry.put("start", millis(span.firstStart - startNanos));
+            entry.put("duration", millis(span.nanos));
+            entry.put("count", span.count);
+            list.add(entry);
+        }
+        for (Map.Entry<String, Long> total : totals.entrySet()) {
+            result.put(total.getKey() + "Time", millis(total.getValue()));
+        }
+        result.put("spans", list);
+    }
+
+    /**
+     * @return Nanoseconds as ms, rounded to microseconds.
+     */
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1_000.0) / 1_000.0;
+    }
+
+    private void setMetric(Metric m, long value) {
+        metrics[m.ordinal()] = value;
+        hasMetric[m.ordinal()] = true;
+    }
+
+    private boolean hasMetric(Metric m) {
+        return hasMetric[m.ordinal()];
+    }
+
+    private long getMetric(Metric m) {
+        return metrics[m.ordinal()];
+    }
+
+    /**
+     * Set a delta to the difference between a new value and its base, if the
+     * base was sampled.
+     */
+    private void setDelta(Metric delta, Metric base, long value) {
+        if (hasMetric(base)) {
+            setMetric(delta, value - getMetric(base));
+        }
+    }
+
+    /**
+     * Read the aggregate CPU times and the context switch count from /proc/stat.
+     *
+     * @return The CPU_METRICS values followed by the context switch count,
+     * or null if /proc/stat could not be read.
+     */
+    private static long[][] readCPUMetrics() {
+        long[][] values = {new long[CPU_METRICS.length], {-1}};
+        return PROC_STAT.readValues(CPU_KEYS, values) ? values : null;
+    }
+
+    /**
+     * Read the user and kernel mode times of this process from /proc/self/stat.
+     *
+     * @return The PROCESS_CPU_METRICS values, or null if /proc/self/stat
+     * could not be read.
+     */
+    private static long[] readProcessCPU() {
+        long[] values = {-1, -1};
+        return PROC_SELF_STAT.readStatFields(PROCESS_CPU_FIELD, values) && values[1] >= 0 ? values : null;
+    }
+
+    /**
+     * Read the page fault counters from /proc/vmstat.
+     *
+     * @return Page faults and major page faults, -1 where missing, or null if
+     * /proc/vmstat could not be read.
+     */
+    private static long[][] readPageFaults() {
+        long[][] values = {{-1}, {-1}};
+        return PROC_VMSTAT.readValues(PAGE_FAULT_KEYS, values) ? values : null;
+    }
+
+    /**
+     * Get the container metadata, collecting it if this is the first
+     * Inspector of the container. Adds metadataCached to the attributes.
+     */
+    private ContainerMetadata getMetadata() {
+        if (metadata == null) {
+            boolean[] cached = new boolean[1];
+            ContainerMetadata m = loadMetadata(cached);
+            metadata = m;
+            metadataCached = cached[0];
+            attributes.put("metadataCached", cached[0] ? 1 : 0);
+        }
+        return metadata;
+    }
+
+    /**
+     * @param cached Set to whether the metadata had been collected before.
+     * @return The metadata of this container.
+     */
+    private static ContainerMetadata loadMetadata(boolean[] cached) {
+        ContainerMetadata m = containerMetadata;
+        cached[0] = m != null;
+        if (m == null) {
+            synchronized (Inspector.class) {
+                m = containerMetadata;
+                cached[0] = m != null;
+                if (m == null) {
+                    m = new ContainerMetadata();
+                    containerMetadata = m;
                 }
-            } catch (IOException ioe) {
-                sb.append("Error reading file=");
-                sb.append(filename);
             }
         }
-        return sb.toString();
+        return m;
     }
 
     /**
-     * Execute a bash command and get the output.
+     * Add all attributes of inspectContainer, inspectPlatform, inspectLinux
+     * and the CPU model of inspectCPU.
+     */
+    private void addMetadata(ContainerMetadata m, boolean cached) {
+        metadata = m;
+        metadataCached = cached;
+        attributes.put("metadataCached", cached ? 1 : 0);
+        attributes.putAll(m.container);
+        attributes.put("newcontainer", cached ? 0 : m.newContainer);
+        attributes.putAll(m.platform);
+        attributes.putAll(m.linux);
+        attributes.putAll(m.cpu);
+    }
+
+    /**
+     * Body of the background thread of inspectAllAsync. Only sets fields,
+     * which are read after the thread has been joined.
+     */
+    private void collectMetadata() {
+        long start = System.nanoTime();
+        try {
+            boolean[] cached = new boolean[1];
+            asyncMetadata = loadMetadata(cached);
+            asyncMetadataCached = cached[0];
+        } catch (RuntimeException e) {
+            asyncFailure = e;
+        }
+        asyncNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Wait for the background collection of inspectAllAsync, if any, and add
+     * its attributes.
+     */
+    private void awaitMetadata() {
+        if (metadataThread == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                metadataThread.join();
+                break;
+            } catch (InterruptedException e) {
+                // Collection only reads local files, keep waiting.
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        metadataThread = null;
+        setMetric(Metric.FRAMEWORK_ASYNC_WAIT, (System.nanoTime() - start) / 1_000_000);
+        setMetric(Metric.FRAMEWORK_ASYNC_RUNTIME, asyncNanos / 1_000_000);
+        if (asyncFailure != null) {
+            attributes.put("SAAFAsyncError", "Collecting container attributes failed: " + asyncFailure);
+        } else {
+            addMetadata(asyncMetadata, asyncMetadataCached);
+        }
+    }
+
+    /**
+     * Read a small file such as a /proc or /sys entry.
      *
-     * @param command An array of strings with each part of the command.
-     * @return Standard out of the command.
+     * @param filename The file name/path to read.
+     * @return The content without surrounding white space, or null if the
+     * file could not be read.
      */
-    private static String runCommand(String[] command) {
-        ProcessBuilder processBuilder = new ProcessBuilder();
-        processBuilder.command(command);
+    private static String readFile(String filename) {
         try {
-            Process process = processBuilder.start();
-            StringBuilder output = new StringBuilder();
-            BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(process.getInputStream()));
+            return new String(Files.readAllBytes(Paths.get(filename)), StandardCharsets.UTF_8).trim();
+        } catch (IOException ioe) {
+            return null;
+        }
+    }
+
+    private static byte[] ascii(String key) {
+        return key.getBytes(StandardCharsets.US_ASCII);
+    }
 
-            String line;
-            while ((line = reader.readLine()) != null) {
-                output.append(line);
-                output.append("\n");
+    /**
+     * A named interval of user code, see startSpan.
+     */
+    public final class Span implements AutoCloseable {
+        private final int id;
+        private final int parentId;
+        private final String name;
+        private long firstStart = -1;
+        private long started = -1;
+        private long nanos;
+        private int count;
+
+        private Span(int id, int parentId, String name) {
+            this.id = id;
+            this.parentId = parentId;
+            this.name = name;
+        }
+
+        /**
+         * Start this span again after it ended. Spans started meanwhile are
+         * nested in it. Does nothing if the span is running.
+         *
+         * @return This span.
+         */
+        public Span start() {
+            if (started < 0) {
+                started = System.nanoTime();
+                if (firstStart < 0) {
+                    firstStart = started;
+                }
+                openSpans.addFirst(this);
             }
+            return this;
+        }
 
-            int exitVal = process.waitFor();
-            if (exitVal == 0) {
-                return output.toString();
+        /**
+         * End the current interval of this span and of the spans still open
+         * in it. Does nothing if the span is not running.
+         */
+        public void end() {
+            if (started >= 0) {
+                while (openSpans.peekFirst() != this) {
+                    openSpans.peekFirst().end();
+                }
+                openSpans.removeFirst();
+                nanos += System.nanoTime() - started;
+                count++;
+                started = -1;
             }
-        } catch (IOException | InterruptedException e) {
-            return "IO Exception " + e.toString();
         }
-        return "ERROR";
+
+        @Override
+        public void close() {
+            end();
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public int getParentId() {
+            return parentId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The total duration of the ended intervals in ns.
+         */
+        public long getNanos() {
+            return nanos;
+        }
     }
 
     /**
-     * Convert an Object into a Map using getBeanInfo.
-     * 
-     * @param bean The object to collect methods from.
-     * @return A HashMap representation of the object.
-     * 
-     * @author https://bit.ly/2ZGg4uW
+     * Numeric attributes with a fixed slot in the metric store, so they stay
+     * primitive until finish builds the attribute map. Adding one of these
+     * names with addAttribute and a Long also uses the slot.
      */
-    private static Map<String, Object> beanProperties(Object bean) {
-        try {
-            return Arrays.asList(
-                Introspector.getBeanInfo(bean.getClass(), Object.class)
-                    .getPropertyDescriptors()
-                ).stream()
-                // filter out properties with setters only
-                .filter(pd -> Objects.nonNull(pd.getReadMethod()))
-                .collect(Collectors.toMap(
-                        // bean property name
-                        PropertyDescriptor::getName,
-                        pd -> { // invoke method to get value
-                            try {
-                                return pd.getReadMethod().invoke(bean);
-                            } catch (IllegalAccessException
-                            | IllegalArgumentException
-                            | InvocationTargetException e) {
-                                // replace this with better error handling
-                                System.out.println(e.toString());
-                                return null;
-                            }
-                        }));
-        } catch (Exception e) {
-            // replace this with better error handling
-            System.out.println(e.toString());
-            return null;
-        } 
+    private enum Metric {
+        START_TIME("startTime"),
+        END_TIME("endTime"),
+        RUNTIME("runtime"),
+        FRAMEWORK_RUNTIME("frameworkRuntime"),
+        FRAMEWORK_RUNTIME_DELTAS("frameworkRuntimeDeltas"),
+        FRAMEWORK_ASYNC_RUNTIME("frameworkAsyncRuntime"),
+        FRAMEWORK_ASYNC_WAIT("frameworkAsyncWait"),
+        USER_RUNTIME("userRuntime"),
+        CPU_USR("cpuUsr"),
+        CPU_NICE("cpuNice"),
+        CPU_KRN("cpuKrn"),
+        CPU_IDLE("cpuIdle"),
+        CPU_IOWAIT("cpuIowait"),
+        CPU_IRQ("cpuIrq"),
+        CPU_SOFT_IRQ("cpuSoftIrq"),
+        VM_CPU_STEAL("vmcpusteal"),
+        CONTEXT_SWITCHES("contextSwitches"),
+        CPU_USR_DELTA("cpuUsrDelta"),
+        CPU_NICE_DELTA("cpuNiceDelta"),
+        CPU_KRN_DELTA("cpuKrnDelta"),
+        CPU_IDLE_DELTA("cpuIdleDelta"),
+        CPU_IOWAIT_DELTA("cpuIowaitDelta"),
+        CPU_IRQ_DELTA("cpuIrqDelta"),
+        CPU_SOFT_IRQ_DELTA("cpuSoftIrqDelta"),
+        VM_CPU_STEAL_DELTA("vmcpustealDelta"),
+        CONTEXT_SWITCHES_DELTA("contextSwitchesDelta"),
+        PAGE_FAULTS("pageFaults"),
+        MAJOR_PAGE_FAULTS("majorPageFaults"),
+        PAGE_FAULTS_DELTA("pageFaultsDelta"),
+        MAJOR_PAGE_FAULTS_DELTA("majorPageFaultsDelta"),
+        PROCESS_CPU_USR("processCpuUsr"),
+        PROCESS_CPU_KRN("processCpuKrn"),
+        PROCESS_CPU_USR_DELTA("processCpuUsrDelta"),
+        PROCESS_CPU_KRN_DELTA("processCpuKrnDelta"),
+        THREAD_CPU_TIME("threadCpuTime"),
+        THREAD_USER_TIME("threadUserTime"),
+        THREAD_ALLOCATED_BYTES("threadAllocatedBytes"),
+        THREAD_CPU_TIME_DELTA("threadCpuTimeDelta"),
+        THREAD_USER_TIME_DELTA("threadUserTimeDelta"),
+        THREAD_ALLOCATED_BYTES_DELTA("threadAllocatedBytesDelta"),
+        GC_COUNT("gcCount"),
+        GC_TIME("gcTime"),
+        HEAP_USED("heapUsed"),
+        HEAP_COMMITTED("heapCommitted"),
+        HEAP_MAX("heapMax"),
+        NON_HEAP_USED("nonHeapUsed"),
+        NON_HEAP_COMMITTED("nonHeapCommitted"),
+        JIT_COMPILE_TIME("jitCompileTime"),
+        LOADED_CLASSES("loadedClasses"),
+        GC_COUNT_DELTA("gcCountDelta"),
+        GC_TIME_DELTA("gcTimeDelta"),
+        HEAP_USED_DELTA("heapUsedDelta"),
+        HEAP_COMMITTED_DELTA("heapCommittedDelta"),
+        NON_HEAP_USED_DELTA("nonHeapUsedDelta"),
+        NON_HEAP_COMMITTED_DELTA("nonHeapCommittedDelta"),
+        JIT_COMPILE_TIME_DELTA("jitCompileTimeDelta"),
+        LOADED_CLASSES_DELTA("loadedClassesDelta");
+
+        final String key;
+
+        Metric(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Attributes that cannot change within a container: its uuid and boot
+     * time, the platform, the kernel and the CPU. They are collected by the
+     * first Inspector of the container and shared by all later ones, which
+     * only copy them.
+     */
+    private static final class ContainerMetadata {
+        final Map<String, Object> container;
+        final Map<String, Object> platform;
+        final Map<String, Object> linux;
+        final Map<String, Object> cpu;
+        final int newContainer;
+
+        ContainerMetadata() {
+            HashMap<String, Object> map = new HashMap<>();
+            newContainer = stampContainer(map);
+            container = Collections.unmodifiableMap(map);
+
+            map = new HashMap<>();
+            inspectPlatform(map);
+            platform = Collections.unmodifiableMap(map);
+
+            map = new HashMap<>();
+            map.put("linuxVersion", uname());
+            linux = Collections.unmodifiableMap(map);
+
+            map = new HashMap<>();
+            inspectCPUInfo(map);
+            cpu = Collections.unmodifiableMap(map);
+        }
+
+        /**
+         * Read the uuid of the container, or assign one if it has none yet,
+         * and the boot time.
+         *
+         * @return 1 if the container is new, 0 if it had a uuid already.
+         */
+        private static int stampContainer(Map<String, Object> attributes) {
+            int newContainer;
+            String uuid = "";
+
+            File f = new File("/tmp/container-id");
+            Path p = Paths.get("/tmp/container-id");
+            if (f.exists()) {
+                newContainer = 0;
+                try (BufferedReader br = Files.newBufferedReader(p)) {
+                    uuid = br.readLine();
+                } catch (IOException ioe) {
+                    //sError = STAMP_ERR_READING_EXISTING_UUID;
+                }
+            } else {
+                newContainer = 1;
+                try (BufferedWriter bw = Files.newBufferedWriter(p,
+                        StandardCharsets.US_ASCII, StandardOpenOption.CREATE_NEW)) {
+                    uuid = UUID.randomUUID().toString();
+                    bw.write(uuid);
+                } catch (IOException ioe) {
+                    //sError = STAMP_ERR_WRITING_NEW_UUID;
+                }
+            }
+            attributes.put("uuid", uuid);
+
+            //Get VM Uptime
+            long[][] values = {{-1}};
+            if (PROC_STAT.readValues(new byte[][]{BTIME}, values) && values[0][0] >= 0) {
+                // boot time in seconds since epoch
+                attributes.put("vmuptime", values[0][0]);
+            }
+            return newContainer;
+        }
+
+        private static void inspectPlatform(Map<String, Object> attributes) {
+            String key = System.getenv("AWS_LAMBDA_LOG_STREAM_NAME");
+            if (key != null) {
+                attributes.put("platform", "AWS Lambda");
+                attributes.put("containerID", key);
+                attributes.put("functionName", System.getenv("AWS_LAMBDA_FUNCTION_NAME"));
+                attributes.put("functionMemory", System.getenv("AWS_LAMBDA_FUNCTION_MEMORY_SIZE"));
+                attributes.put("functionRegion", System.getenv("AWS_REGION"));
+
+                // The VM ID is part of the sandbox-root entry of the cgroup.
+                String cgroup = readFile("/proc/self/cgroup");
+                int index = cgroup == null ? -1 : cgroup.indexOf("sandbox-root");
+                attributes.put("vmID", index >= 0 && index + 19 <= cgroup.length() ? cgroup.substring(index + 13, index + 19) : "unknown");
+            } else {
+                key = System.getenv("X_GOOGLE_FUNCTION_NAME");
+                if (key != null) {
+                    attributes.put("platform", "Google Cloud Functions");
+                    attributes.put("functionName", key);
+                    attributes.put("functionMemory", System.getenv("X_GOOGLE_FUNCTION_MEMORY_MB"));
+                    attributes.put("functionRegion", System.getenv("X_GOOGLE_FUNCTION_REGION"));
+                } else {
+                    key = System.getenv("__OW_ACTION_NAME");
+                    if (key != null) {
+                        attributes.put("platform", "IBM Cloud Functions");
+                        attributes.put("functionName", key);
+                        attributes.put("functionRegion", System.getenv("__OW_API_HOST"));
+                        String uuid = readFile("/sys/hypervisor/uuid");
+                        attributes.put("vmID", uuid != null ? uuid : "ERROR");
+                    } else {
+                        key = System.getenv("CONTAINER_NAME");
+                        if (key != null) {
+                            attributes.put("platform", "Azure Functions");
+                            attributes.put("containerID", key);
+                            attributes.put("functionName", "WEBSITE_SITE_NAME");
+                            attributes.put("functionRegion", System.getenv("Location"));
+                        } else {
+                            attributes.put("platform", "Unknown Platform");
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Rebuild the output of uname -a from /proc/sys/kernel, without
+         * starting a process: kernel name, host name, release, version,
+         * machine and operating system, as printed by GNU coreutils.
+         */
+        private static String uname() {
+            String kernel = readFile("/proc/sys/kernel/ostype");
+            if (kernel == null) {
+                return System.getProperty("os.name") + " " + System.getProperty("os.version") + " " + getMachine();
+            }
+            return kernel + " " + readFile("/proc/sys/kernel/hostname")
+                    + " " + readFile("/proc/sys/kernel/osrelease")
+                    + " " + readFile("/proc/sys/kernel/version")
+                    + " " + getMachine() + " GNU/Linux";
+        }
+
+        /**
+         * @return The machine hardware name as reported by uname.
+         */
+        private static String getMachine() {
+            String arch = System.getProperty("os.arch");
+            switch (arch) {
+                case "amd64": return "x86_64";
+                case "x86": return "i686";
+                default: return arch;
+            }
+        }
+
+        private static void inspectCPUInfo(Map<String, Object> attributes) {
+            String cpuType = "unknown";
+            String cpuModel = "unknown";
+            String cpuCores = "unknown";
+
+            //Get CPU Type, Model and Core Count
+            String[] cpuInfo = PROC_CPUINFO.readText(new byte[][]{MODEL_NAME, MODEL, CPU_CORES});
+            if (cpuInfo == null || cpuInfo[0] == null) {
+                System.err.println("Difficulty processing /proc/cpuinfo.  Is this an Intel platform?  Some attributes may be unavailable.");
+            }
+            if (cpuInfo != null) {
+                cpuType = cpuInfo[0] != null ? cpuInfo[0] : cpuType;
+                cpuModel = cpuInfo[1] != null ? cpuInfo[1] : cpuModel;
+                cpuCores = cpuInfo[2] != null ? cpuInfo[2] : cpuCores;
+            }
+            attributes.put("cpuType", cpuType);
+            attributes.put("cpuModel", cpuModel);
+            attributes.put("cpuCores", cpuCores);
+        }
+    }
+
+    /**
+     * A readable bean property of a Response class and a direct call to its
+     * getter. Properties are found with java.beans.Introspector, as before,
+     * but only once per class. Getters of public classes are bound with
+     * LambdaMetafactory, so reading them is a plain interface call. Other
+     * getters, and getters that declare checked exceptions, fall back to a
+     * MethodHandle that wraps those exceptions.
+     */
+    private static final class ResponseProperty {
+        final String name;
+        final Function<Object, Object> getter;
+
+        ResponseProperty(String name, Function<Object, Object> getter) {
+            this.name = name;
+            this.getter = getter;
+        }
+
+        static ResponseProperty[] forClass(Class<?> type) {
+            PropertyDescriptor[] descriptors;
+            try {
+                descriptors = Introspector.getBeanInfo(type, Object.class).getPropertyDescriptors();
+            } catch (IntrospectionException e) {
+                throw new IllegalStateException("Cannot inspect " + type.getName(), e);
+            }
+            List<ResponseProperty> properties = new ArrayList<>(descriptors.length);
+            for (PropertyDescriptor descriptor : descriptors) {
+                // Skip properties with setters only.
+                Method read = descriptor.getReadMethod();
+                if (read != null) {
+                    properties.add(new ResponseProperty(descriptor.getName(), getter(read)));
+                }
+            }
+            return properties.toArray(new ResponseProperty[0]);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Function<Object, Object> getter(Method read) {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            // A bound getter would let checked exceptions through Function.apply.
+            if (Modifier.isPublic(read.getDeclaringClass().getModifiers()) && read.getExceptionTypes().length == 0) {
+                try {
+                    MethodHandle handle = lookup.unreflect(read);
+                    CallSite site = LambdaMetafactory.metafactory(lookup, "apply",
+                            MethodType.methodType(Function.class),
+                            MethodType.methodType(Object.class, Object.class),
+                            handle, handle.type().wrap());
+                    return (Function<Object, Object>) site.getTarget().invoke();
+                } catch (Throwable t) {
+                    // For example a class loader that cannot see the class,
+                    // fall back to a method handle.
+                }
+            }
+            MethodHandle handle;
+            try {
+                read.setAccessible(true);
+                handle = lookup.unreflect(read).asType(MethodType.methodType(Object.class, Object.class));
+            } catch (IllegalAccessException | RuntimeException e) {
+                throw new IllegalStateException("Cannot read " + read, e);
+            }
+            return bean -> {
+                try {
+                    return handle.invokeExact(bean);
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable t) {
+                    throw new IllegalStateException(t);
+                }
+            };
+        }
+    }
+
+    /**
+     * CPU time and heap allocation of single threads. Loaded on first use by
+     * inspectThread, since the management beans take a while to set up.
+     */
+    private static final class ThreadCounters {
+        private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+        private static final com.sun.management.ThreadMXBean ALLOCATIONS =
+                THREADS instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) THREADS : null;
+
+        /**
+         * @return CPU time and user time in ns and allocated bytes of a
+         * thread, -1 where they cannot be measured.
+         */
+        static long[] read(long id) {
+            long[] values = {-1, -1, -1};
+            try {
+                if (THREADS.isThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled()) {
+                    values[0] = THREADS.getThreadCpuTime(id);
+                    values[1] = THREADS.getThreadUserTime(id);
+                }
+                if (ALLOCATIONS != null && ALLOCATIONS.isThreadAllocatedMemorySupported()
+                        && ALLOCATIONS.isThreadAllocatedMemoryEnabled()) {
+                    values[2] = ALLOCATIONS.getThreadAllocatedBytes(id);
+                }
+            } catch (UnsupportedOperationException e) {
+                // Left at -1.
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Garbage collection, memory, JIT and class loading counters of the JVM,
+     * loaded on first use like ThreadCounters.
+     */
+    private static final class JvmCounters {
+        private static final List<GarbageCollectorMXBean> COLLECTORS = ManagementFactory.getGarbageCollectorMXBeans();
+        private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+        // Null if the JVM has no JIT compiler.
+        private static final CompilationMXBean COMPILATION = ManagementFactory.getCompilationMXBean();
+        private static final ClassLoadingMXBean CLASS_LOADING = ManagementFactory.getClassLoadingMXBean();
+        private static final String COLLECTOR_NAMES = collectorNames();
+
+        /**
+         * @return The JVM_METRICS values, -1 where they cannot be measured.
+         */
+        static long[] read() {
+            long[] values = new long[JVM_METRICS.length];
+            long count = -1;
+            long time = -1;
+            for (GarbageCollectorMXBean collector : COLLECTORS) {
+                if (collector.getCollectionCount() >= 0) {
+                    count = Math.max(count, 0) + collector.getCollectionCount();
+                }
+                if (collector.getCollectionTime() >= 0) {
+                    time = Math.max(time, 0) + collector.getCollectionTime();
+                }
+            }
+            values[0] = count;
+            values[1] = time;
+            MemoryUsage heap = MEMORY.getHeapMemoryUsage();
+            MemoryUsage nonHeap = MEMORY.getNonHeapMemoryUsage();
+            values[2] = heap.getUsed();
+            values[3] = heap.getCommitted();
+            values[4] = nonHeap.getUsed();
+            values[5] = nonHeap.getCommitted();
+            values[6] = COMPILATION != null && COMPILATION.isCompilationTimeMonitoringSupported()
+                    ? COMPILATION.getTotalCompilationTime() : -1;
+            values[7] = CLASS_LOADING.getLoadedClassCount();
+            return values;
+        }
+
+        private static String collectorNames() {
+            StringBuilder names = new StringBuilder();
+            for (GarbageCollectorMXBean collector : COLLECTORS) {
+                if (names.length() > 0) {
+                    names.append(',');
+                }
+                names.append(collector.getName());
+            }
+            return names.toString();
+        }
+    }
+
+    /**
+     * A file under /proc that is read again for every sample. The file stays
+     * open and is read from the start into a direct buffer that is kept
+     * between reads, then only the lines that are asked for are parsed, by
+     * scanning the bytes instead of building a String for each line.
+     */
+    private static final class ProcFile {
+        private final Path path;
+        private FileChannel channel;
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(16 * 1024);
+        private int length;
+
+        ProcFile(String path) {
+            this.path = Paths.get(path);
+        }
+
+        /**
+         * Parse the numbers that follow each key at the start of a line, as
+         * many as fit into the array of that key. Arrays of keys that are not
+         * found are left as they are.
+         *
+         * @return False if the file could not be read.
+         */
+        synchronized boolean readValues(byte[][] keys, long[][] values) {
+            if (!read()) {
+                return false;
+            }
+            for (int line = 0; line < length; line = nextLine(line)) {
+                for (int k = 0; k < keys.length; k++) {
+                    int at = match(line, keys[k]);
+                    if (at >= 0) {
+                        parseNumbers(at, values[k]);
+                        break;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Parse consecutive fields of a /proc/[pid]/stat line, numbered from
+         * 1 as in proc(5), as many as fit into the array. The command name in
+         * field 2 may contain blanks, so fields are counted from its closing
+         * parenthesis.
+         *
+         * @return False if the file could not be read.
+         */
+        synchronized boolean readStatFields(int field, long[] values) {
+            if (!read()) {
+                return false;
+            }
+            int at = length - 1;
+            while (at >= 0 && buffer.get(at) != ')') {
+                at--;
+            }
+            if (at < 0) {
+                return false;
+            }
+            at++;
+            for (int f = 3; f < field; f++) {
+                at = skipBlanks(at);
+                while (at < length && buffer.get(at) != ' ' && buffer.get(at) != '\n') {
+                    at++;
+                }
+            }
+            parseNumbers(at, values);
+            return true;
+        }
+
+        /**
+         * Get the text after the colon of the first "key : text" line of each
+         * key.
+         *
+         * @return The text of each key, null where missing, or null if the
+         * file could not be read.
+         */
+        synchronized String[] readText(byte[][] keys) {
+            if (!read()) {
+                return null;
+            }
+            String[] text = new String[keys.length];
+            for (int line = 0; line < length; line = nextLine(line)) {
+                for (int k = 0; k < keys.length; k++) {
+                    int at = text[k] == null ? match(line, keys[k]) : -1;
+                    if (at >= 0) {
+                        at = skipBlanks(at);
+                        if (at < length && buffer.get(at) == ':') {
+                            text[k] = parseText(at + 1);
+                            break;
+                        }
+                    }
+                }
+            }
+            return text;
+        }
+
+        /**
+         * Read the whole file into the buffer, growing it until it fits.
+         */
+        private boolean read() {
+            try {
+                if (channel == null) {
+                    channel = FileChannel.open(path, StandardOpenOption.READ);
+                }
+                while (true) {
+                    buffer.clear();
+                    channel.position(0);
+                    while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                    }
+                    if (buffer.hasRemaining()) {
+                        length = buffer.position();
+                        return true;
+                    }
+                    buffer = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+                }
+            } catch (IOException ioe) {
+                close();
+                return false;
+            }
+        }
+
+        private void close() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ioe) {
+                    // Reopened on the next read.
+                }
+                channel = null;
+            }
+        }
+
+        /**
+         * @return The position after the key if the line starts with it as a
+         * whole word, -1 otherwise.
+         */
+        private int match(int line, byte[] key) {
+            int end = line + key.length;
+            if (end >= length) {
+                return -1;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (buffer.get(line + i) != key[i]) {
+                    return -1;
+                }
+            }
+            byte next = buffer.get(end);
+            return next == ' ' || next == '\t' || next == ':' ? end : -1;
+        }
+
+        private void parseNumbers(int at, long[] values) {
+            for (int i = 0; i < values.length; i++) {
+                while (at < length && (buffer.get(at) == ' ' || buffer.get(at) == '\t' || buffer.get(at) == ':')) {
+                    at++;
+                }
+                if (at == length || !isDigit(buffer.get(at))) {
+                    return;
+                }
+                long value = 0;
+                while (at < length && isDigit(buffer.get(at))) {
+                    value = value * 10 + (buffer.get(at++) - '0');
+                }
+                values[i] = value;
+            }
+        }
+
+        private String parseText(int at) {
+            at = skipBlanks(at);
+            int end = at;
+            while (end < length && buffer.get(end) != '\n') {
+                end++;
+            }
+            while (end > at && (buffer.get(end - 1) == ' ' || buffer.get(end - 1) == '\t')) {
+                end--;
+            }
+            byte[] bytes = new byte[end - at];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(at + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private int skipBlanks(int at) {
+            while (at < length && (buffer.get(at) == ' ' || buffer.get(at) == '\t')) {
+                at++;
+            }
+            return at;
+        }
+
+        private int nextLine(int at) {
+            while (at < length && buffer.get(at) != '\n') {
+                at++;
+            }
+            return at + 1;
+        }
+
+        private static boolean isDigit(byte b) {
+            return b >= '0' && b <= '9';
+        }
     }
 }
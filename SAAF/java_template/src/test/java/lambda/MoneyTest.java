@@ -0,0 +1,84 @@
+package lambda;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class MoneyTest {
+
+    @Test
+    public void printsAmountsLikeBigDecimal() {
+        String[] amounts = {"0", "1", "1.5", "1.50", "1.505", "1.5055", "-1.5", "-0.05", "0.0001",
+                "-0.00", "007.10", "255.28", "1582243.50", "99999999999999.9999", "-99999999999999.9999"};
+        for (String text : amounts) {
+            BigDecimal expected = new BigDecimal(text);
+            long amount = Money.fromBigDecimal(expected);
+            assertEquals(text, expected.toString(), Money.toString(amount));
+            assertEquals(text, expected, Money.toBigDecimal(amount));
+        }
+    }
+
+    @Test
+    public void roundsLongFractionsHalfUp() {
+        assertEquals("1.2346", Money.toString(Money.fromBigDecimal(new BigDecimal("1.23455"))));
+        assertEquals("-1.2345", Money.toString(Money.fromBigDecimal(new BigDecimal("-1.23454"))));
+        assertEquals("-1.2346", Money.toString(Money.fromBigDecimal(new BigDecimal("-1.234550001"))));
+    }
+
+    @Test
+    public void ratioMatchesBigDecimalDivide() {
+        Random random = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            int scale = random.nextInt(Money.MAX_SCALE + 1);
+            BigDecimal dividend = BigDecimal.valueOf(random.nextLong() % 10_000_000_000L, scale);
+            BigDecimal divisor = BigDecimal.valueOf(random.nextLong() % 10_000_000_000L, random.nextInt(Money.MAX_SCALE + 1));
+            if (divisor.signum() == 0) {
+                continue;
+            }
+            BigDecimal expected = dividend.divide(divisor, 2, RoundingMode.HALF_UP);
+            long ratio = Money.ratio(Money.fromBigDecimal(dividend), Money.fromBigDecimal(divisor));
+            assertEquals(dividend + "/" + divisor, expected.toString(), Money.toString(ratio));
+        }
+    }
+
+    @Test
+    public void ratioRoundsExactHalvesAwayFromZero() {
+        assertEquals("0.13", Money.toString(Money.ratio(Money.valueOf(125, 3), Money.valueOf(1, 0))));
+        assertEquals("-0.13", Money.toString(Money.ratio(Money.valueOf(-125, 3), Money.valueOf(1, 0))));
+        assertEquals("-0.13", Money.toString(Money.ratio(Money.valueOf(125, 3), Money.valueOf(-1, 0))));
+    }
+
+    @Test
+    public void ratioFallsBackOnOverflow() {
+        long dividend = Money.of(Money.MAX_VALUE, 0);
+        long divisor = Money.of(Money.MAX_VALUE / 3, 0);
+        BigDecimal expected = BigDecimal.valueOf(Money.MAX_VALUE).divide(BigDecimal.valueOf(Money.MAX_VALUE / 3), 2, RoundingMode.HALF_UP);
+        assertEquals(expected.toString(), Money.toString(Money.ratio(dividend, divisor)));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void ratioRejectsZeroDivisor() {
+        Money.ratio(Money.valueOf(1, 0), Money.valueOf(0, 2));
+    }
+
+    @Test
+    public void totalsKeepTwoDecimalsOrMore() {
+        assertEquals("12.00", Money.appendTotal(new StringBuilder(), 120_000).toString());
+        assertEquals("12.50", Money.appendTotal(new StringBuilder(), 125_000).toString());
+        assertEquals("-12.505", Money.appendTotal(new StringBuilder(), -125_050).toString());
+        assertEquals("0.0001", Money.appendTotal(new StringBuilder(), 1).toString());
+    }
+
+    @Test
+    public void amountsOrderLikeTheirValues() {
+        long[] sorted = {Money.valueOf(-15, 1), Money.valueOf(-1, 0), Money.valueOf(0, 2), Money.valueOf(5, 4),
+                Money.valueOf(1, 0), Money.valueOf(100, 2), Money.valueOf(1005, 3)};
+        for (int i = 1; i < sorted.length; i++) {
+            assertEquals(true, sorted[i - 1] < sorted[i]);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package lambda;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PipelinedGzipOutputStreamTest {
+
+    @Test
+    public void compressesWhatWasWritten() throws IOException {
+        byte[] data = new byte[3 * 1024 * 1024 + 17];
+        Random random = new Random(1);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(4));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (PipelinedGzipOutputStream gzip = new PipelinedGzipOutputStream(bytes, 1)) {
+            gzip.write(data[0]);
+            gzip.write(data, 1, data.length - 1);
+            assertEquals(data.length, gzip.getBytesWritten());
+        }
+        assertArrayEquals(data, gunzip(bytes.toByteArray()));
+    }
+
+    @Test(timeout = 10_000)
+    public void errorInTheCompressorReachesTheWriter() {
+        OutputStream target = new OutputStream() {
+            @Override
+            public void write(int b) {
+                throw new OutOfMemoryError("Target failed");
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                throw new OutOfMemoryError("Target failed");
+            }
+        };
+        PipelinedGzipOutputStream gzip = new PipelinedGzipOutputStream(target);
+        byte[] block = new byte[64 * 1024];
+        try {
+            // Far more than the queued blocks, so the writer has to wait for
+            // blocks that the failed compressor returns.
+            for (int i = 0; i < 1000; i++) {
+                gzip.write(block, 0, block.length);
+            }
+            gzip.finish();
+            fail("Finished after the target failed");
+        } catch (IOException | IllegalStateException e) {
+            assertTrue(e.getCause() instanceof OutOfMemoryError);
+        }
+    }
+
+    @Test
+    public void rejectsInvalidLevels() {
+        for (int level : new int[]{-2, 10}) {
+            try {
+                new PipelinedGzipOutputStream(new ByteArrayOutputStream(), level);
+                fail("Accepted level " + level);
+            } catch (IllegalArgumentException expected) {
+                // Invalid.
+            }
+        }
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) >= 0) {
+                out.write(buf, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,197 @@
+package lambda;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PrefetchingInputStreamTest {
+
+    @Test
+    public void readsPartsInOrder() throws IOException {
+        byte[] data = randomBytes(100_000);
+        // Later parts tend to arrive first.
+        InMemorySource source = new InMemorySource(data) {
+            @Override
+            void beforeRead(long start) throws InterruptedException {
+                Thread.sleep(start % 3);
+            }
+        };
+        try (PrefetchingInputStream in = new PrefetchingInputStream(source, 0, data.length, 4, 1000)) {
+            assertArrayEquals(data, readAll(in));
+            assertEquals(100, in.getParts());
+        }
+        assertEquals(100, source.opens.get());
+    }
+
+    @Test
+    public void readsSubRangeWithShortLastPart() throws IOException {
+        byte[] data = randomBytes(10_000);
+        try (PrefetchingInputStream in = new PrefetchingInputStream(new InMemorySource(data), 123, 4567, 3, 1000)) {
+            byte[] first = new byte[1];
+            assertEquals(1, in.read(first, 0, 1));
+            assertEquals(data[123], first[0]);
+            assertEquals(data[124] & 0xff, in.read());
+            byte[] rest = readAll(in);
+            assertArrayEquals(Arrays.copyOfRange(data, 125, 4567), rest);
+            assertEquals(-1, in.read());
+            assertEquals(5, in.getParts());
+        }
+    }
+
+    @Test
+    public void emptyRangeIsAtEnd() throws IOException {
+        InMemorySource source = new InMemorySource(randomBytes(100));
+        try (PrefetchingInputStream in = new PrefetchingInputStream(source, 50, 50, 2, 10)) {
+            assertEquals(-1, in.read());
+        }
+        assertEquals(0, source.opens.get());
+    }
+
+    @Test
+    public void earlyCloseStopsFetching() throws Exception {
+        byte[] data = randomBytes(10_000);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch interrupted = new CountDownLatch(2);
+        InMemorySource source = new InMemorySource(data) {
+            @Override
+            void beforeRead(long start) throws InterruptedException {
+                if (start > 0) {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                        throw e;
+                    }
+                }
+            }
+        };
+        PrefetchingInputStream in = new PrefetchingInputStream(source, 0, data.length, 2, 100);
+        assertEquals(data[0] & 0xff, in.read());
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        in.close();
+        // The two parts fetched ahead are interrupted and nothing else is requested.
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertEquals(3, source.opens.get());
+        try {
+            in.read();
+            fail("Read after close");
+        } catch (IOException expected) {
+            // Closed.
+        }
+        in.close();
+    }
+
+    @Test
+    public void failingRangeIsReportedInOrder() throws IOException {
+        byte[] data = randomBytes(1000);
+        InMemorySource source = new InMemorySource(data) {
+            @Override
+            InputStream open(long start, long end, byte[] range) throws IOException {
+                if (start == 300) {
+                    throw new IOException("Range at 300 failed");
+                }
+                return super.open(start, end, range);
+            }
+        };
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        try (PrefetchingInputStream in = new PrefetchingInputStream(source, 0, data.length, 4, 100)) {
+            byte[] buf = new byte[64];
+            int n;
+            while ((n = in.read(buf, 0, buf.length)) >= 0) {
+                read.write(buf, 0, n);
+            }
+            fail("Read past a failed range");
+        } catch (IOException e) {
+            assertEquals("Range at 300 failed", e.getMessage());
+        }
+        // Parts before the failure are still delivered.
+        assertArrayEquals(Arrays.copyOf(data, 300), read.toByteArray());
+    }
+
+    @Test(expected = EOFException.class)
+    public void shortRangeFails() throws IOException {
+        byte[] data = randomBytes(1000);
+        InMemorySource source = new InMemorySource(data) {
+            @Override
+            InputStream open(long start, long end, byte[] range) throws IOException {
+                return super.open(start, end, Arrays.copyOf(range, range.length - 1));
+            }
+        };
+        try (PrefetchingInputStream in = new PrefetchingInputStream(source, 0, data.length, 2, 100)) {
+            readAll(in);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[777];
+        int n;
+        while ((n = in.read(buf, 0, buf.length)) >= 0) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * A ByteRangeSource over a byte array. Subclasses delay or break ranges.
+     */
+    private static class InMemorySource implements ByteRangeSource {
+        final byte[] data;
+        final AtomicInteger opens = new AtomicInteger();
+
+        InMemorySource(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public long length() {
+            return data.length;
+        }
+
+        @Override
+        public InputStream open(long offset) throws IOException {
+            return open(offset, data.length);
+        }
+
+        @Override
+        public InputStream open(long start, long end) throws IOException {
+            opens.incrementAndGet();
+            try {
+                beforeRead(start);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted", e);
+            }
+            return open(start, end, Arrays.copyOfRange(data, (int) start, (int) end));
+        }
+
+        void beforeRead(long start) throws InterruptedException {
+        }
+
+        InputStream open(long start, long end, byte[] range) throws IOException {
+            return new ByteArrayInputStream(range);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package lambda;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The fixed-point CSV path must write the same bytes as the original
+ * BigDecimal implementation, reproduced here by LegacySale.
+ */
+public class SaleCsvParityTest {
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("M/d/yyyy");
+    private static final String[] PRIORITIES = {"L", "M", "H", "C"};
+
+    @Test
+    public void batchOutputMatchesBigDecimal() throws IOException {
+        String input = generate(20_000, new Random(7));
+        SalesDictionary dictionary = new SalesDictionary();
+        SalesBatch batch = new SalesBatch(dictionary, 1000);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SaleCsvWriter out = new SaleCsvWriter(bytes);
+        out.writeHeader();
+        try (SalesCsvParser parser = new SalesCsvParser(stream(input), dictionary)) {
+            while (parser.fill(batch) > 0) {
+                batch.transform();
+                out.write(batch);
+            }
+        }
+        out.flush();
+        assertEquals(legacyOutput(input), bytes.toString("UTF-8"));
+    }
+
+    @Test
+    public void saleOutputMatchesBigDecimal() throws IOException {
+        String input = generate(20_000, new Random(11));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SaleCsvWriter out = new SaleCsvWriter(bytes);
+        StringBuilder strings = new StringBuilder(SaleCsvWriter.HEADER);
+        out.writeHeader();
+        try (SalesCsvParser parser = new SalesCsvParser(stream(input))) {
+            while (parser.next()) {
+                Sale sale = parser.getSale();
+                out.write(sale);
+                strings.append(sale).append('\n');
+            }
+        }
+        out.flush();
+        String expected = legacyOutput(input);
+        assertEquals(expected, bytes.toString("UTF-8"));
+        assertEquals(expected, strings.toString());
+    }
+
+    @Test
+    public void keepsTheDecimalsOfTheInput() throws IOException {
+        String input = "Asia,Japan,Fruits,Online,H,1/2/2015,1,1/9/2015,10,1.5,0.75,15,7.5000,7.5\n";
+        assertEquals(legacyOutput(input), transform(input));
+        assertEquals(SaleCsvWriter.HEADER + "Asia,Japan,Fruits,Online,High,1/2/2015,1,1/9/2015,10,1.5,0.75,15,7.5000,7.5,7,0.50\n",
+                transform(input));
+    }
+
+    @Test
+    public void roundsFractionsBeyondFourDecimals() throws IOException {
+        String input = "Asia,Japan,Fruits,Online,H,1/2/2015,1,1/9/2015,10,1.23455,0.123449,15,7.5,7.5\n";
+        assertEquals(SaleCsvWriter.HEADER + "Asia,Japan,Fruits,Online,High,1/2/2015,1,1/9/2015,10,1.2346,0.1234,15,7.5,7.5,7,0.50\n",
+                transform(input));
+    }
+
+    private static String transform(String input) throws IOException {
+        SalesDictionary dictionary = new SalesDictionary();
+        SalesBatch batch = new SalesBatch(dictionary);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SaleCsvWriter out = new SaleCsvWriter(bytes);
+        out.writeHeader();
+        try (SalesCsvParser parser = new SalesCsvParser(stream(input), dictionary)) {
+            while (parser.fill(batch) > 0) {
+                batch.transform();
+                out.write(batch);
+            }
+        }
+        out.flush();
+        return bytes.toString("UTF-8");
+    }
+
+    /**
+     * Rows with distinct order IDs and amounts of zero to four decimals,
+     * some negative.
+     */
+    private static String generate(int rows, Random random) {
+        StringBuilder sb = new StringBuilder("Region,Country,Item Type,Sales Channel,Order Priority,Order Date,Order ID,Ship Date,Units Sold,Unit Price,Unit Cost,Total Revenue,Total Cost,Total Profit\n");
+        for (int i = 0; i < rows; i++) {
+            LocalDate orderDate = LocalDate.of(2010, 1, 1).plusDays(random.nextInt(3000));
+            LocalDate shipDate = orderDate.plusDays(random.nextInt(50));
+            BigDecimal revenue = amount(random);
+            while (revenue.signum() == 0) {
+                revenue = amount(random);
+            }
+            sb.append("Region ").append(random.nextInt(7)).append(',')
+                    .append("Country ").append(random.nextInt(180)).append(',')
+                    .append("Item ").append(random.nextInt(12)).append(',')
+                    .append(random.nextBoolean() ? "Online" : "Offline").append(',')
+                    .append(PRIORITIES[random.nextInt(PRIORITIES.length)]).append(',')
+                    .append(orderDate.format(FORMATTER)).append(',')
+                    .append(100_000_000 + i).append(',')
+                    .append(shipDate.format(FORMATTER)).append(',')
+                    .append(random.nextInt(10_000)).append(',')
+                    .append(amount(random).toPlainString()).append(',')
+                    .append(amount(random).toPlainString()).append(',')
+                    .append(revenue.toPlainString()).append(',')
+                    .append(amount(random).toPlainString()).append(',')
+                    .append(amount(random).toPlainString()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static BigDecimal amount(Random random) {
+        long unscaled = random.nextInt(4) == 0 ? random.nextInt(1000) : random.nextLong() % 10_000_000_000L;
+        return BigDecimal.valueOf(unscaled, random.nextInt(Money.MAX_SCALE + 1));
+    }
+
+    private static String legacyOutput(String input) {
+        StringBuilder sb = new StringBuilder(SaleCsvWriter.HEADER);
+        for (String line : input.split("\n")) {
+            if (!line.startsWith("Region,Country,")) {
+                sb.append(LegacySale.parse(line)).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static ByteArrayInputStream stream(String input) {
+        return new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parsing and formatting of the original Sale, before amounts were held
+     * as fixed-point longs.
+     */
+    private static final class LegacySale {
+        String region;
+        String country;
+        String itemType;
+        String salesChannel;
+        String orderPriority;
+        LocalDate orderDate;
+        int orderId;
+        LocalDate shipDate;
+        int unitsSold;
+        BigDecimal unitPrice;
+        BigDecimal unitCost;
+        BigDecimal totalRevenue;
+        BigDecimal totalCost;
+        BigDecimal totalProfit;
+        int orderProcessingTime;
+        BigDecimal grossMargin;
+
+        static LegacySale parse(String line) {
+            String[] data = line.split(",");
+            LegacySale sale = new LegacySale();
+            sale.region = data[0];
+            sale.country = data[1];
+            sale.itemType = data[2];
+            sale.salesChannel = data[3];
+            sale.orderPriority = formatPriority(data[4]);
+            sale.orderDate = LocalDate.parse(data[5], FORMATTER);
+            sale.orderId = Integer.parseInt(data[6]);
+            sale.shipDate = LocalDate.parse(data[7], FORMATTER);
+            sale.unitsSold = Integer.parseInt(data[8]);
+            sale.unitPrice = new BigDecimal(data[9]);
+            sale.unitCost = new BigDecimal(data[10]);
+            sale.totalRevenue = new BigDecimal(data[11]);
+            sale.totalCost = new BigDecimal(data[12]);
+            sale.totalProfit = new BigDecimal(data[13]);
+            sale.orderProcessingTime = Math.toIntExact(ChronoUnit.DAYS.between(sale.orderDate, sale.shipDate));
+            sale.grossMargin = sale.totalProfit.divide(sale.totalRevenue, 2, RoundingMode.HALF_UP);
+            return sale;
+        }
+
+        private static String formatPriority(String priority) {
+            switch (priority) {
+                case "L":
+                    return "Low";
+                case "M":
+                    return "Medium";
+                case "H":
+                    return "High";
+                case "C":
+                    return "Critical";
+                default:
+                    return "";
+            }
+        }
+
+        @Override
+        public String toString() {
+            return region + "," + country + "," + itemType + "," + salesChannel + "," + orderPriority + ","
+                    + orderDate.format(FORMATTER) + "," + orderId + "," + shipDate.format(FORMATTER) + ","
+                    + unitsSold + "," + unitPrice + "," + unitCost + "," + totalRevenue + "," + totalCost + ","
+                    + totalProfit + "," + orderProcessingTime + "," + grossMargin;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package lambda;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SalesColumnarTest {
+
+    private static final SalesColumn[] COLUMNS = SalesColumn.values();
+    private static final String[] REGIONS = {"Asia", "Europe", "Sub-Saharan Africa", "Central America and the Caribbean"};
+    private static final String[] COUNTRIES = {"Japan", "C\u00f4te d'Ivoire", "Bosnia and Herzegovina", "\"Korea, South\"", "S\u00e3o Tom\u00e9 and Pr\u00edncipe"};
+    private static final String[] PRIORITIES = {"L", "M", "H", "C"};
+
+    @Test
+    public void readsBackWhatWasWritten() throws IOException {
+        int rowCount = SalesColumnarWriter.ROW_GROUP_SIZE + 1000;
+        SalesDictionary dictionary = new SalesDictionary();
+        SalesBatch batch = new SalesBatch(dictionary);
+        // Expected values by column, text as strings.
+        List<List<Object>> expected = new ArrayList<>();
+        for (int c = 0; c < COLUMNS.length; c++) {
+            expected.add(new ArrayList<>());
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SalesColumnarWriter writer = new SalesColumnarWriter(bytes);
+        try (SalesCsvParser parser = new SalesCsvParser(csv(rowCount, new Random(3)), dictionary)) {
+            while (parser.fill(batch) > 0) {
+                batch.transform();
+                writer.write(batch);
+                for (int row = 0; row < batch.size(); row++) {
+                    for (int c = 0; c < COLUMNS.length; c++) {
+                        expected.get(c).add(expectedValue(batch, COLUMNS[c], row));
+                    }
+                }
+            }
+        }
+        writer.close();
+        assertEquals(bytes.size(), writer.getBytesWritten());
+
+        SalesColumnarReader reader = new SalesColumnarReader(bytes.toByteArray());
+        assertEquals(rowCount, reader.getRowCount());
+        assertEquals(2, reader.getRowGroupCount());
+        assertEquals(SalesColumnarWriter.ROW_GROUP_SIZE, reader.getRowCount(0));
+        assertEquals(1000, reader.getRowCount(1));
+
+        Set<String> texts = new HashSet<>();
+        int groupStart = 0;
+        for (int g = 0; g < reader.getRowGroupCount(); g++) {
+            int rows = reader.getRowCount(g);
+            for (int c = 0; c < COLUMNS.length; c++) {
+                SalesColumn column = COLUMNS[c];
+                List<Object> values = expected.get(c).subList(groupStart, groupStart + rows);
+                long[] read = reader.readColumn(g, column);
+                assertEquals(rows, read.length);
+                if (column.getType() == SalesColumn.Type.TEXT) {
+                    String min = null;
+                    String max = null;
+                    for (int row = 0; row < rows; row++) {
+                        String value = (String) values.get(row);
+                        assertEquals(column + " row " + row, value, reader.getString(read[row]));
+                        texts.add(value);
+                        min = min == null || value.compareTo(min) < 0 ? value : min;
+                        max = max == null || value.compareTo(max) > 0 ? value : max;
+                    }
+                    assertEquals(column.toString(), min, reader.getString(reader.getMin(g, column)));
+                    assertEquals(column.toString(), max, reader.getString(reader.getMax(g, column)));
+                } else {
+                    long min = Long.MAX_VALUE;
+                    long max = Long.MIN_VALUE;
+                    for (int row = 0; row < rows; row++) {
+                        long value = (Long) values.get(row);
+                        assertEquals(column + " row " + row, value, read[row]);
+                        min = Math.min(min, value);
+                        max = Math.max(max, value);
+                    }
+                    assertEquals(column.toString(), min, reader.getMin(g, column));
+                    assertEquals(column.toString(), max, reader.getMax(g, column));
+                }
+            }
+            groupStart += rows;
+        }
+        // Each text is stored once, whichever columns use it.
+        assertEquals(texts.size(), reader.getDictionarySize());
+    }
+
+    @Test
+    public void formatsValuesLikeTheCsvOutput() throws IOException {
+        String line = "Asia,Japan,Fruits,Online,H,1/2/2015,42,1/9/2015,10,1.5,0.75,15,7.5000,7.5\n";
+        SalesDictionary dictionary = new SalesDictionary();
+        SalesBatch batch = new SalesBatch(dictionary);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (SalesCsvParser parser = new SalesCsvParser(new ByteArrayInputStream(line.getBytes(StandardCharsets.UTF_8)), dictionary);
+             SalesColumnarWriter writer = new SalesColumnarWriter(bytes)) {
+            parser.fill(batch);
+            batch.transform();
+            writer.write(batch);
+        }
+        SalesColumnarReader reader = new SalesColumnarReader(bytes.toByteArray());
+        StringBuilder row = new StringBuilder();
+        for (SalesColumn column : COLUMNS) {
+            row.append(row.length() > 0 ? "," : "").append(reader.format(column, reader.readColumn(0, column)[0]));
+        }
+        assertEquals("Asia,Japan,Fruits,Online,High,1/2/2015,42,1/9/2015,10,1.5,0.75,15,7.5000,7.5,7,0.50", row.toString());
+    }
+
+    @Test
+    public void emptyFileHasNoGroups() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new SalesColumnarWriter(bytes).close();
+        SalesColumnarReader reader = new SalesColumnarReader(bytes.toByteArray());
+        assertEquals(0, reader.getRowCount());
+        assertEquals(0, reader.getRowGroupCount());
+        assertEquals(0, reader.getDictionarySize());
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws IOException {
+        assertRejected("Region,Country\n".getBytes(StandardCharsets.US_ASCII), "Not a columnar sales file");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new SalesColumnarWriter(bytes).close();
+        byte[] data = bytes.toByteArray();
+        // The version follows the leading magic.
+        data[SalesColumnarWriter.MAGIC.length + 3] = 1;
+        assertRejected(data, "Unsupported version 1");
+    }
+
+    private static void assertRejected(byte[] data, String message) {
+        try {
+            new SalesColumnarReader(data);
+            fail("Read " + message);
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+        }
+    }
+
+    private static Object expectedValue(SalesBatch batch, SalesColumn column, int row) {
+        long value = column.get(batch, row);
+        if (column.getType() != SalesColumn.Type.TEXT) {
+            return value;
+        }
+        SalesDictionary dictionary = batch.getDictionary();
+        if (column == SalesColumn.ORDER_PRIORITY) {
+            return dictionary.getString(dictionary.getPriorityLabel((int) value));
+        }
+        return dictionary.getString((int) value);
+    }
+
+    private static ByteArrayInputStream csv(int rows, Random random) {
+        StringBuilder sb = new StringBuilder(SaleCsvWriter.HEADER);
+        for (int i = 0; i < rows; i++) {
+            int orderDay = 14_000 + random.nextInt(3000);
+            sb.append(REGIONS[random.nextInt(REGIONS.length)]).append(',')
+                    .append(COUNTRIES[random.nextInt(COUNTRIES.length)]).append(',')
+                    .append("Item ").append(random.nextInt(12)).append(',')
+                    .append(random.nextBoolean() ? "Online" : "Offline").append(',')
+                    .append(PRIORITIES[random.nextInt(PRIORITIES.length)]).append(',')
+                    .append(SalesDates.toString(orderDay)).append(',')
+                    .append(random.nextInt(1_000_000_000)).append(',')
+                    .append(SalesDates.toString(orderDay + random.nextInt(50))).append(',')
+                    .append(random.nextInt(10_000)).append(',')
+                    .append(amount(random)).append(',')
+                    .append(amount(random)).append(',')
+                    .append(random.nextInt(1_000_000) + 1).append(',')
+                    .append(amount(random)).append(',')
+                    .append(amount(random)).append('\n');
+        }
+        return new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String amount(Random random) {
+        return Money.toString(Money.valueOf(random.nextInt(20_000_000) - 1_000_000, random.nextInt(Money.MAX_SCALE + 1)));
+    }
+}
@@ -0,0 +1,42 @@
+package saaf;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InspectorTest {
+
+    @Test
+    public void consumesResponseProperties() {
+        Response response = new Response();
+        response.setValue("done");
+        Inspector inspector = new Inspector();
+        inspector.consumeResponse(response);
+        HashMap<String, Object> attributes = inspector.finish();
+        assertEquals("done", attributes.get("value"));
+        assertFalse(attributes.containsKey("SAAFConsumeReponseError"));
+    }
+
+    @Test
+    public void throwingGetterIsReportedNotThrown() {
+        ThrowingResponse response = new ThrowingResponse();
+        response.setValue("done");
+        Inspector inspector = new Inspector();
+        inspector.consumeResponse(response);
+        HashMap<String, Object> attributes = inspector.finish();
+        // The other properties are still added.
+        assertEquals("done", attributes.get("value"));
+        assertTrue(attributes.containsKey("SAAFConsumeReponseError"));
+        assertTrue(((String) attributes.get("SAAFConsumeReponseError")).contains("broken"));
+    }
+
+    public static class ThrowingResponse extends Response {
+        public String getBroken() throws Exception {
+            throw new Exception("Not available");
+        }
+    }
+}